@@ -29,3 +29,9 @@
 # If you are developing an SDK, you should publish your AAR with its own ProGuard file that
 # R8 will automatically use when an application depends on your SDK.
 # See https://developer.android.com/studio/build/shrink-code#optimization-aar
+
+# Strip debug and verbose logging from release builds. Warnings and errors are kept.
+-assumenosideeffects class android.util.Log {
+    public static int d(...);
+    public static int v(...);
+}
@@ -0,0 +1,156 @@
+package com.truffulatree.noflatrotate;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.RotationSettings;
+
+/**
+ * Hands lock and unlock decisions to a {@link RotationSettingsWriter} on its own thread, so the
+ * thread that makes them never waits on a Settings write or the observer callbacks it sets off.
+ *
+ * There is a single pending target rather than a queue: a decision made while an earlier one
+ * is still waiting replaces it, and the writer only ever applies the newest. A lock that is
+ * overtaken by an unlock before it is written is never written at all. Until the writer has
+ * caught up, {@link #isAutoRotateEnabled()} answers as if the pending target had already been
+ * applied; once it has, the answer comes from the writer again, so a write that failed or an
+ * outside change shows up on the next call.
+ *
+ * The writer, including {@link RotationSettingsWriter#refresh()} and
+ * {@link RotationSettingsWriter#invalidatePermission()}, must only be used on the writer thread
+ * from then on.
+ */
+final class AsyncRotationSettings implements RotationSettings {
+
+    private static final String TAG = "AsyncRotationSettings";
+
+    private static final int NO_TARGET = -1;
+    // 0 to 3 are locks to that Surface rotation
+    private static final int TARGET_AUTO_ROTATE = 4;
+    private static final int TARGET_NO_AUTO_ROTATE = 5;
+
+    private final RotationSettingsWriter writer;
+    private final Handler writerHandler;
+    private final Metrics metrics;
+
+    // Guarded by this
+    private int pendingTarget = NO_TARGET;
+    private long pendingSinceNanos;
+
+    // What the settings will be once the writer has caught up
+    private volatile boolean autoRotateEnabled;
+
+    private final Runnable applyLatest = this::applyLatest;
+
+    /**
+     * @param writerHandler the thread all writes and refreshes are made on
+     * @param metrics where superseded targets, write errors and actuation latency are counted
+     */
+    AsyncRotationSettings(RotationSettingsWriter writer, Handler writerHandler, Metrics metrics) {
+        this.writer = writer;
+        this.writerHandler = writerHandler;
+        this.metrics = metrics;
+        this.autoRotateEnabled = writer.isAutoRotateEnabled();
+    }
+
+    @Override
+    public boolean isAutoRotateEnabled() {
+        return autoRotateEnabled;
+    }
+
+    /**
+     * Queues the lock and returns at once.
+     *
+     * @return always true; a failed write shows up in {@link #isAutoRotateEnabled()} afterwards
+     */
+    @Override
+    public boolean lockRotation(int rotation) {
+        submit(rotation, false);
+        return true;
+    }
+
+    /**
+     * Queues the change and returns at once.
+     *
+     * @return always true; a failed write shows up in {@link #isAutoRotateEnabled()} afterwards
+     */
+    @Override
+    public boolean setAutoRotateEnabled(boolean enabled) {
+        submit(enabled ? TARGET_AUTO_ROTATE : TARGET_NO_AUTO_ROTATE, enabled);
+        return true;
+    }
+
+    /**
+     * Re-reads the settings on the writer thread, after any write already queued.
+     */
+    void refresh() {
+        writerHandler.post(() -> {
+            writer.refresh();
+            publishIfIdle();
+        });
+    }
+
+    /**
+     * Forgets the cached WRITE_SETTINGS result on the writer thread.
+     */
+    void invalidatePermission() {
+        writerHandler.post(writer::invalidatePermission);
+    }
+
+    private void submit(int target, boolean autoRotateAfter) {
+        boolean superseded;
+        synchronized (this) {
+            // Under the lock so the writer can't republish its older values over this
+            autoRotateEnabled = autoRotateAfter;
+            superseded = pendingTarget != NO_TARGET;
+            pendingTarget = target;
+            pendingSinceNanos = SystemClock.elapsedRealtimeNanos();
+        }
+        if (superseded) {
+            // Already posted; the writer will pick up this target instead
+            metrics.increment(Metrics.SETTINGS_TARGETS_SUPERSEDED);
+        } else {
+            writerHandler.post(applyLatest);
+        }
+    }
+
+    private void applyLatest() {
+        int target;
+        long sinceNanos;
+        synchronized (this) {
+            target = pendingTarget;
+            sinceNanos = pendingSinceNanos;
+            pendingTarget = NO_TARGET;
+        }
+        if (target == NO_TARGET) {
+            return;
+        }
+        // The writer logs its own failures; publishIfIdle() makes them visible to the caller
+        try {
+            if (target == TARGET_AUTO_ROTATE || target == TARGET_NO_AUTO_ROTATE) {
+                writer.setAutoRotateEnabled(target == TARGET_AUTO_ROTATE);
+            } else {
+                writer.lockRotation(target);
+            }
+        } catch (Exception e) {
+            metrics.increment(Metrics.ROTATION_ERRORS);
+            Log.e(TAG, "Unexpected error writing rotation settings: " + e.getMessage());
+        }
+        metrics.recordLatency(Metrics.LATENCY_ACTUATION, SystemClock.elapsedRealtimeNanos() - sinceNanos);
+        publishIfIdle();
+    }
+
+    /**
+     * Makes the writer's values the answer again, unless a newer target is waiting, whose
+     * optimistic answer must stand until it has been applied.
+     */
+    private void publishIfIdle() {
+        synchronized (this) {
+            if (pendingTarget == NO_TARGET) {
+                autoRotateEnabled = writer.isAutoRotateEnabled();
+            }
+        }
+    }
+}
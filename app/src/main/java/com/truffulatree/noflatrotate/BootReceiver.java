@@ -5,11 +5,18 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
- * Receives the BOOT_COMPLETED broadcast and starts the RotationService
- * if the user has enabled start on boot.
+ * Receives the boot broadcasts and starts the RotationService if the user has enabled
+ * start on boot.
+ *
+ * LOCKED_BOOT_COMPLETED arrives before the user first unlocks, so the service can start
+ * protecting the rotation from the lock screen onwards. That is why the settings live in
+ * device-protected storage. BOOT_COMPLETED follows after unlock, when settings from an older
+ * install can finally be moved over; the service started earlier is told to re-read them.
+ * Starting it again then is harmless.
  */
 public class BootReceiver extends BroadcastReceiver {
 
@@ -17,25 +24,52 @@ public class BootReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-            Log.d(TAG, "Boot completed received");
-            
-            // Check if start on boot is enabled
-            SharedPreferences prefs = context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE);
-            boolean startOnBoot = prefs.getBoolean(MainActivity.KEY_START_ON_BOOT, true);
-            
-            if (startOnBoot) {
-                Log.d(TAG, "Starting RotationService after boot");
-                Intent serviceIntent = new Intent(context, RotationService.class);
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    context.startForegroundService(serviceIntent);
-                } else {
-                    context.startService(serviceIntent);
-                }
+        String action = intent.getAction();
+        boolean lockedBoot = Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action);
+        if (!lockedBoot && !Intent.ACTION_BOOT_COMPLETED.equals(action)) {
+            return;
+        }
+        Log.d(TAG, action + " received");
+        long receivedElapsedMillis = SystemClock.elapsedRealtime();
+
+        // Reading the preferences is disk I/O, and the boot broadcasts land while the whole
+        // system is starting up; keep it off the main thread.
+        PendingResult pendingResult = goAsync();
+        if (pendingResult == null) {
+            // Called directly rather than through a broadcast, so there's nothing to hold open
+            startServiceIfEnabled(context, lockedBoot, receivedElapsedMillis);
+            return;
+        }
+        new Thread(() -> {
+            try {
+                startServiceIfEnabled(context, lockedBoot, receivedElapsedMillis);
+            } finally {
+                pendingResult.finish();
+            }
+        }, TAG).start();
+    }
+
+    private static void startServiceIfEnabled(Context context, boolean lockedBoot, long receivedElapsedMillis) {
+        if (!lockedBoot) {
+            // The user is unlocked, so settings from an older install can be moved over now
+            MainActivity.migratePreferences(context);
+        }
+
+        // Check if start on boot is enabled
+        SharedPreferences prefs = MainActivity.getPreferences(context);
+        boolean startOnBoot = prefs.getBoolean(MainActivity.KEY_START_ON_BOOT, true);
+
+        if (startOnBoot) {
+            Log.d(TAG, "Starting RotationService after boot");
+            Intent serviceIntent = new Intent(context, RotationService.class);
+            serviceIntent.putExtra(RotationService.EXTRA_BOOT_BROADCAST_ELAPSED_MS, receivedElapsedMillis);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(serviceIntent);
             } else {
-                Log.d(TAG, "Start on boot is disabled, not starting service");
+                context.startService(serviceIntent);
             }
+        } else {
+            Log.d(TAG, "Start on boot is disabled, not starting service");
         }
     }
 }
-
@@ -1,15 +1,26 @@
 package com.truffulatree.noflatrotate;
 
 import android.Manifest;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.provider.Settings;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.RadioGroup;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -20,26 +31,104 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 import androidx.core.content.ContextCompat;
 
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.PowerProfile;
+
 public class MainActivity extends AppCompatActivity {
 
+    private static final String TAG = "MainActivity";
+
     public static final String PREFS_NAME = "NoFlatRotatePrefs";
     public static final String KEY_SERVICE_ENABLED = "service_enabled";
     public static final String KEY_START_ON_BOOT = "start_on_boot";
     public static final String KEY_FLAT_THRESHOLD = "flat_threshold";
     public static final String KEY_VERTICAL_THRESHOLD = "vertical_threshold";
+    public static final String KEY_SENSOR_BATCHING = "sensor_batching";
+    public static final String KEY_DWELL_MS = "dwell_ms";
+    public static final String KEY_MOTION_GATE_SECONDS = "motion_gate_seconds";
+    public static final String KEY_FILTER_TIME_CONSTANT_MS = "filter_time_constant_ms";
+    public static final String KEY_TRACE_ENABLED = "trace_enabled";
+    public static final String KEY_POWER_PROFILE = "power_profile";
+    public static final String KEY_PREDICTION_MS = "prediction_ms";
+    public static final String KEY_ADAPTIVE_SAMPLING = "adaptive_sampling";
+    // Set once credential-protected storage has been checked for settings from an older install
+    static final String KEY_PREFERENCES_MIGRATED = "preferences_migrated";
 
     public static final int DEFAULT_FLAT_THRESHOLD = 20;
     public static final int DEFAULT_VERTICAL_THRESHOLD = 30;
+    public static final int DEFAULT_DWELL_MS = 0;
+    // 0 keeps the accelerometer running whenever the service is
+    public static final int DEFAULT_MOTION_GATE_SECONDS = 0;
+    public static final int DEFAULT_FILTER_TIME_CONSTANT_MS = 200;
+    // The trace costs a few array stores per sample, so it is on unless switched off
+    public static final boolean DEFAULT_TRACE_ENABLED = false;
+    public static final int DEFAULT_POWER_PROFILE = PowerProfile.BALANCED;
+    // 0 only locks once the device is actually flat
+    public static final int DEFAULT_PREDICTION_MS = 0;
+    // Off keeps the accelerometer at the power profile's rate
+    public static final boolean DEFAULT_ADAPTIVE_SAMPLING = false;
+
+    // Radio button for each PowerProfile, indexed by the profile
+    private static final int[] POWER_PROFILE_BUTTONS = {
+            R.id.power_profile_low, R.id.power_profile_balanced, R.id.power_profile_responsive};
 
     private Button permissionButton;
     private TextView permissionGrantedTextView;
     private SwitchCompat startOnBootSwitch;
+    private SwitchCompat sensorBatchingSwitch;
+    private RadioGroup powerProfileGroup;
+    private SwitchCompat adaptiveSamplingSwitch;
     private SeekBar flatThresholdSeekBar;
     private SeekBar verticalThresholdSeekBar;
     private TextView flatThresholdValue;
     private TextView verticalThresholdValue;
+    private SeekBar dwellSeekBar;
+    private TextView dwellValue;
+    private SeekBar motionGateSeekBar;
+    private TextView motionGateValue;
+    private SeekBar filterSeekBar;
+    private TextView filterValue;
+    private SeekBar predictionSeekBar;
+    private TextView predictionValue;
+    private TextView diagnosticsText;
+    private SwitchCompat traceSwitch;
+    private Button saveTraceButton;
+
+    // Redraws the diagnostics panel once a second while the activity is in the foreground
+    private static final long DIAGNOSTICS_REFRESH_MILLIS = 1000;
+    private final Handler diagnosticsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable diagnosticsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            updateDiagnostics();
+            diagnosticsHandler.postDelayed(this, DIAGNOSTICS_REFRESH_MILLIS);
+        }
+    };
+
+    // Bound while the activity is visible, without starting the service, so a lock or unlock
+    // redraws the panel at once instead of on the next refresh. Null while not connected.
+    private RotationService.LocalBinder serviceBinder;
+    private final RotationService.StateListener stateListener = state -> updateDiagnostics();
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (!(service instanceof RotationService.LocalBinder)) {
+                return;
+            }
+            serviceBinder = (RotationService.LocalBinder) service;
+            serviceBinder.addStateListener(stateListener, diagnosticsHandler);
+            updateDiagnostics();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            serviceBinder = null;
+        }
+    };
 
     private SharedPreferences prefs;
+    // Batching only happens on an accelerometer with a hardware FIFO, whatever the preference
+    private boolean accelerometerHasFifo;
 
     // Modern way to handle permission requests
     private final ActivityResultLauncher<String> requestPermissionLauncher = 
@@ -69,7 +158,12 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        // Only reads credential storage the first time; the preferences are loaded here anyway
+        migratePreferences(this);
+        prefs = getPreferences(this);
+        SensorManager sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        Sensor accelerometer = sensorManager != null ? sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) : null;
+        accelerometerHasFifo = accelerometer != null && accelerometer.getFifoMaxEventCount() > 0;
 
         // Initialize views
         TextView welcomeTextView = findViewById(R.id.welcome_text_view);
@@ -77,10 +171,24 @@ public class MainActivity extends AppCompatActivity {
         permissionButton = findViewById(R.id.permission_button);
         permissionGrantedTextView = findViewById(R.id.permission_granted_text_view);
         startOnBootSwitch = findViewById(R.id.start_on_boot_switch);
+        sensorBatchingSwitch = findViewById(R.id.sensor_batching_switch);
+        powerProfileGroup = findViewById(R.id.power_profile_group);
+        adaptiveSamplingSwitch = findViewById(R.id.adaptive_sampling_switch);
         flatThresholdSeekBar = findViewById(R.id.flat_threshold_seekbar);
         verticalThresholdSeekBar = findViewById(R.id.vertical_threshold_seekbar);
         flatThresholdValue = findViewById(R.id.flat_threshold_value);
         verticalThresholdValue = findViewById(R.id.vertical_threshold_value);
+        dwellSeekBar = findViewById(R.id.dwell_seekbar);
+        dwellValue = findViewById(R.id.dwell_value);
+        motionGateSeekBar = findViewById(R.id.motion_gate_seekbar);
+        motionGateValue = findViewById(R.id.motion_gate_value);
+        filterSeekBar = findViewById(R.id.filter_seekbar);
+        filterValue = findViewById(R.id.filter_value);
+        predictionSeekBar = findViewById(R.id.prediction_seekbar);
+        predictionValue = findViewById(R.id.prediction_value);
+        diagnosticsText = findViewById(R.id.diagnostics_text);
+        traceSwitch = findViewById(R.id.trace_switch);
+        saveTraceButton = findViewById(R.id.save_trace_button);
 
         welcomeTextView.setText(R.string.welcome_message);
         explanationTextView.setText(R.string.explanation);
@@ -92,11 +200,110 @@ public class MainActivity extends AppCompatActivity {
         checkAndRequestInitialPermissions();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, RotationService.class), serviceConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (serviceBinder != null) {
+            serviceBinder.removeStateListener(stateListener);
+            serviceBinder = null;
+        }
+        unbindService(serviceConnection);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        diagnosticsRefresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        diagnosticsHandler.removeCallbacks(diagnosticsRefresh);
+    }
+
+    private void updateDiagnostics() {
+        Metrics metrics = RotationService.METRICS;
+        long now = SystemClock.elapsedRealtimeNanos();
+        long sensorOnNanos = metrics.sensorOnNanos(now);
+        long sinceStartNanos = metrics.sinceStartNanos(now);
+        // Each delivery from the sensor wakes the application processor once
+        long wakeupsPerHour = sinceStartNanos == 0 ? 0
+                : Math.round(metrics.get(Metrics.SENSOR_DELIVERIES) * 3_600e9 / sinceStartNanos);
+        // The estimates assume the sensor stays on for the same share of time under every profile
+        double sensorOnFraction = sinceStartNanos == 0 ? 1.0 : (double) sensorOnNanos / sinceStartNanos;
+        boolean batching = prefs.getBoolean(KEY_SENSOR_BATCHING, false) && accelerometerHasFifo;
+        int powerProfile = PowerProfile.sanitize(prefs.getInt(KEY_POWER_PROFILE, DEFAULT_POWER_PROFILE));
+        // Deliveries per hour of sensor-on time under the current profile, or -1 before there
+        // is a second of it to measure
+        double measuredPerSensorOnHour = sensorOnNanos < 1_000_000_000L ? -1
+                : metrics.get(Metrics.SENSOR_DELIVERIES) * 3_600e9 / sensorOnNanos;
+        String state = "";
+        if (serviceBinder != null) {
+            RotationState rotationState = serviceBinder.getState();
+            state = getString(R.string.state_format, rotationState.isFlatMode(), rotationState.isLocked(),
+                    rotationState.lastStableRotation() * 90, rotationState.angleFromVertical());
+        }
+        diagnosticsText.setText(state + getString(R.string.diagnostics_format,
+                metrics.get(Metrics.SAMPLES_PROCESSED),
+                metrics.get(Metrics.SAMPLES_DROPPED),
+                metrics.get(Metrics.FLAT_ENTRIES),
+                metrics.get(Metrics.FLAT_EXITS),
+                metrics.get(Metrics.FLAT_TRANSITIONS_SUPPRESSED),
+                metrics.get(Metrics.SETTINGS_WRITES_ISSUED),
+                metrics.get(Metrics.SETTINGS_WRITES_SKIPPED),
+                metrics.get(Metrics.SETTINGS_TARGETS_SUPERSEDED),
+                metrics.get(Metrics.SETTINGS_READS),
+                metrics.get(Metrics.PERMISSION_CHECKS),
+                metrics.get(Metrics.DISPLAY_QUERIES),
+                metrics.get(Metrics.ROTATION_ERRORS),
+                metrics.get(Metrics.SAMPLING_RATE_SWITCHES),
+                sensorOnNanos / 1_000_000_000L,
+                wakeupsPerHour,
+                estimateWakeupsPerHour(PowerProfile.LOW_POWER, powerProfile, measuredPerSensorOnHour, batching,
+                        sensorOnFraction),
+                estimateWakeupsPerHour(PowerProfile.BALANCED, powerProfile, measuredPerSensorOnHour, batching,
+                        sensorOnFraction),
+                estimateWakeupsPerHour(PowerProfile.RESPONSIVE, powerProfile, measuredPerSensorOnHour, batching,
+                        sensorOnFraction),
+                metrics.meanLatencyNanos(Metrics.LATENCY_DETECTION) / 1_000_000L,
+                metrics.maxLatencyNanos(Metrics.LATENCY_DETECTION) / 1_000_000L,
+                metrics.meanLatencyNanos(Metrics.LATENCY_ACTUATION) / 1_000_000L,
+                metrics.maxLatencyNanos(Metrics.LATENCY_ACTUATION) / 1_000_000L));
+    }
+
+    /**
+     * Projects what the service has measured onto {@code profile}, falling back to the
+     * nominal rate until there is something to measure.
+     */
+    private static long estimateWakeupsPerHour(int profile, int measuredProfile, double measuredPerSensorOnHour,
+                                               boolean batching, double sensorOnFraction) {
+        if (measuredPerSensorOnHour < 0) {
+            return PowerProfile.estimateWakeupsPerHour(profile, batching, sensorOnFraction);
+        }
+        return PowerProfile.projectWakeupsPerHour(measuredPerSensorOnHour, measuredProfile, profile, batching,
+                sensorOnFraction);
+    }
+
     private void setupPreferences() {
         // Load saved values
         boolean startOnBoot = prefs.getBoolean(KEY_START_ON_BOOT, true);
+        boolean sensorBatching = prefs.getBoolean(KEY_SENSOR_BATCHING, false);
         int flatThreshold = prefs.getInt(KEY_FLAT_THRESHOLD, DEFAULT_FLAT_THRESHOLD);
         int verticalThreshold = prefs.getInt(KEY_VERTICAL_THRESHOLD, DEFAULT_VERTICAL_THRESHOLD);
+        int dwellMillis = prefs.getInt(KEY_DWELL_MS, DEFAULT_DWELL_MS);
+        int motionGateSeconds = prefs.getInt(KEY_MOTION_GATE_SECONDS, DEFAULT_MOTION_GATE_SECONDS);
+        int filterTimeConstant = prefs.getInt(KEY_FILTER_TIME_CONSTANT_MS, DEFAULT_FILTER_TIME_CONSTANT_MS);
+        boolean traceEnabled = prefs.getBoolean(KEY_TRACE_ENABLED, DEFAULT_TRACE_ENABLED);
+        int predictionMillis = prefs.getInt(KEY_PREDICTION_MS, DEFAULT_PREDICTION_MS);
+        boolean adaptiveSampling = prefs.getBoolean(KEY_ADAPTIVE_SAMPLING, DEFAULT_ADAPTIVE_SAMPLING);
+        int powerProfile = PowerProfile.sanitize(prefs.getInt(KEY_POWER_PROFILE, DEFAULT_POWER_PROFILE));
 
         // Setup start on boot switch
         startOnBootSwitch.setChecked(startOnBoot);
@@ -104,56 +311,175 @@ public class MainActivity extends AppCompatActivity {
             prefs.edit().putBoolean(KEY_START_ON_BOOT, isChecked).apply();
         });
 
-        // Setup flat threshold seekbar
-        flatThresholdSeekBar.setProgress(flatThreshold);
-        flatThresholdValue.setText(getString(R.string.degree_format, flatThreshold));
-        flatThresholdSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-            @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                // Minimum of 5 degrees
-                int value = Math.max(5, progress);
-                flatThresholdValue.setText(getString(R.string.degree_format, value));
-                if (fromUser) {
-                    prefs.edit().putInt(KEY_FLAT_THRESHOLD, value).apply();
-                    notifyServiceOfConfigChange();
+        // Setup sensor batching switch
+        sensorBatchingSwitch.setChecked(sensorBatching);
+        sensorBatchingSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            prefs.edit().putBoolean(KEY_SENSOR_BATCHING, isChecked).apply();
+        });
+
+        // Setup power profile buttons. Choosing a profile also moves motion smoothing to the
+        // profile's preset, which the slider below can still fine-tune.
+        powerProfileGroup.check(POWER_PROFILE_BUTTONS[powerProfile]);
+        powerProfileGroup.setOnCheckedChangeListener((group, checkedId) -> {
+            for (int profile = 0; profile < POWER_PROFILE_BUTTONS.length; profile++) {
+                if (POWER_PROFILE_BUTTONS[profile] == checkedId) {
+                    int filterMillis = PowerProfile.filterTimeConstantMillis(profile);
+                    prefs.edit()
+                            .putInt(KEY_POWER_PROFILE, profile)
+                            .putInt(KEY_FILTER_TIME_CONSTANT_MS, filterMillis)
+                            .apply();
+                    // Only updates the label; the slider saves changes made by the user
+                    filterSeekBar.setProgress(filterMillis);
+                    return;
                 }
             }
+        });
 
-            @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {}
-
-            @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
+        // Setup adaptive sampling switch
+        adaptiveSamplingSwitch.setChecked(adaptiveSampling);
+        adaptiveSamplingSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            prefs.edit().putBoolean(KEY_ADAPTIVE_SAMPLING, isChecked).apply();
         });
 
-        // Setup vertical threshold seekbar
+        // Setup flat threshold seekbar (minimum of 5 degrees)
+        flatThresholdSeekBar.setProgress(flatThreshold);
+        flatThresholdValue.setText(getString(R.string.degree_format, flatThreshold));
+        flatThresholdSeekBar.setOnSeekBarChangeListener(
+                new PreferenceSeekBarListener(KEY_FLAT_THRESHOLD, 5, flatThresholdValue, R.string.degree_format));
+
+        // Setup vertical threshold seekbar (minimum of 10 degrees)
         verticalThresholdSeekBar.setProgress(verticalThreshold);
         verticalThresholdValue.setText(getString(R.string.degree_format, verticalThreshold));
-        verticalThresholdSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
-            @Override
-            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                // Minimum of 10 degrees
-                int value = Math.max(10, progress);
-                verticalThresholdValue.setText(getString(R.string.degree_format, value));
-                if (fromUser) {
-                    prefs.edit().putInt(KEY_VERTICAL_THRESHOLD, value).apply();
-                    notifyServiceOfConfigChange();
-                }
-            }
+        verticalThresholdSeekBar.setOnSeekBarChangeListener(
+                new PreferenceSeekBarListener(KEY_VERTICAL_THRESHOLD, 10, verticalThresholdValue, R.string.degree_format));
+
+        // Setup dwell time seekbar (0 = switch on the first sample past a threshold)
+        dwellSeekBar.setProgress(dwellMillis);
+        dwellValue.setText(getString(R.string.millis_format, dwellMillis));
+        dwellSeekBar.setOnSeekBarChangeListener(
+                new PreferenceSeekBarListener(KEY_DWELL_MS, 0, dwellValue, R.string.millis_format));
+
+        // Setup motion gate seekbar (0 = never pause the accelerometer)
+        motionGateSeekBar.setProgress(motionGateSeconds);
+        motionGateValue.setText(getString(R.string.seconds_format, motionGateSeconds));
+        motionGateSeekBar.setOnSeekBarChangeListener(
+                new PreferenceSeekBarListener(KEY_MOTION_GATE_SECONDS, 0, motionGateValue, R.string.seconds_format));
+
+        // Setup motion smoothing seekbar (0 = raw accelerometer)
+        filterSeekBar.setProgress(filterTimeConstant);
+        filterValue.setText(getString(R.string.millis_format, filterTimeConstant));
+        filterSeekBar.setOnSeekBarChangeListener(
+                new PreferenceSeekBarListener(KEY_FILTER_TIME_CONSTANT_MS, 0, filterValue, R.string.millis_format));
 
-            @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {}
+        // Setup predictive lock seekbar (0 = wait until the device is flat)
+        predictionSeekBar.setProgress(predictionMillis);
+        predictionValue.setText(getString(R.string.millis_format, predictionMillis));
+        predictionSeekBar.setOnSeekBarChangeListener(
+                new PreferenceSeekBarListener(KEY_PREDICTION_MS, 0, predictionValue, R.string.millis_format));
 
-            @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
+        // Setup trace recording switch and export button
+        traceSwitch.setChecked(traceEnabled);
+        saveTraceButton.setEnabled(traceEnabled);
+        traceSwitch.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            prefs.edit().putBoolean(KEY_TRACE_ENABLED, isChecked).apply();
+            saveTraceButton.setEnabled(isChecked);
         });
+        saveTraceButton.setOnClickListener(v -> saveTrace());
     }
 
-    private void notifyServiceOfConfigChange() {
-        // Send broadcast to service to reload config
-        Intent intent = new Intent(RotationService.ACTION_CONFIG_CHANGED);
-        intent.setPackage(getPackageName());
-        sendBroadcast(intent);
+    private void saveTrace() {
+        Intent intent = new Intent(this, RotationService.class).setAction(RotationService.ACTION_DUMP_TRACE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            startForegroundService(intent);
+        } else {
+            startService(intent);
+        }
+        Toast.makeText(this, getString(R.string.trace_saved, RotationService.getTraceFile(this).getPath()),
+                Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Keeps a seekbar's label live while it moves, but only writes the preference once the
+     * drag ends. The service follows the preferences directly, so every write is a config
+     * reload there; a drag should cost one, not one per tick. Changes that don't come from a
+     * drag (keyboard, accessibility) are written straight away.
+     */
+    private final class PreferenceSeekBarListener implements SeekBar.OnSeekBarChangeListener {
+        private final String key;
+        private final int minimum;
+        private final TextView label;
+        private final int formatResId;
+        private boolean tracking = false;
+
+        PreferenceSeekBarListener(String key, int minimum, TextView label, int formatResId) {
+            this.key = key;
+            this.minimum = minimum;
+            this.label = label;
+            this.formatResId = formatResId;
+        }
+
+        @Override
+        public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+            int value = Math.max(minimum, progress);
+            label.setText(getString(formatResId, value));
+            if (fromUser && !tracking) {
+                save(value);
+            }
+        }
+
+        @Override
+        public void onStartTrackingTouch(SeekBar seekBar) {
+            tracking = true;
+        }
+
+        @Override
+        public void onStopTrackingTouch(SeekBar seekBar) {
+            tracking = false;
+            save(Math.max(minimum, seekBar.getProgress()));
+        }
+
+        private void save(int value) {
+            prefs.edit().putInt(key, value).apply();
+        }
+    }
+
+    /**
+     * The settings live in device-protected storage so the boot receiver and the service can
+     * read them before the user first unlocks after a reboot.
+     */
+    static SharedPreferences getPreferences(Context context) {
+        return context.createDeviceProtectedStorageContext().getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+    }
+
+    /**
+     * Moves settings saved by older versions out of credential-protected storage. Only call
+     * this while the user is unlocked. Once it has run, a flag in the already-loaded
+     * device-protected preferences makes later calls return without touching the old file, so
+     * it is cheap enough for the main thread. A running RotationService is told when something
+     * was moved, since its preferences instance is replaced by the move.
+     *
+     * @return whether any settings were moved
+     */
+    static boolean migratePreferences(Context context) {
+        if (getPreferences(context).getBoolean(KEY_PREFERENCES_MIGRATED, false)) {
+            return false;
+        }
+        boolean moved = false;
+        if (!context.getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getAll().isEmpty()) {
+            moved = context.createDeviceProtectedStorageContext().moveSharedPreferencesFrom(context, PREFS_NAME);
+            if (!moved) {
+                // Leave the flag unset so the next call tries again
+                Log.w(TAG, "Could not move preferences to device-protected storage");
+                return false;
+            }
+        }
+        // Fetched again, since a move replaces the instance
+        getPreferences(context).edit().putBoolean(KEY_PREFERENCES_MIGRATED, true).apply();
+        if (moved) {
+            context.sendBroadcast(new Intent(RotationService.ACTION_PREFERENCES_MOVED)
+                    .setPackage(context.getPackageName()));
+        }
+        return moved;
     }
 
     private void checkAndRequestInitialPermissions() {
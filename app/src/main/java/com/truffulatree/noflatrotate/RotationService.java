@@ -9,47 +9,213 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.hardware.display.DisplayManager;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.net.Uri;
+import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
+import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
+import com.truffulatree.noflatrotate.core.DetectionConfig;
+import com.truffulatree.noflatrotate.core.DetectionPipeline;
+import com.truffulatree.noflatrotate.core.LockStateMachine;
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.RotationController;
+import com.truffulatree.noflatrotate.core.TraceRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Adapts the Android sensor, settings and display APIs to {@link RotationController}, which
+ * holds the detection and lock logic, and decides when the accelerometer needs to be on.
+ */
 public class RotationService extends Service implements SensorEventListener {
 
     private static final String TAG = "RotationService";
-    public static final String ACTION_CONFIG_CHANGED = "com.truffulatree.noflatrotate.CONFIG_CHANGED";
+    // Compile-time gate for logging on the sensor path; release builds drop these branches entirely
+    private static final boolean DEBUG = BuildConfig.DEBUG;
 
     private SensorManager sensorManager;
     private Sensor accelerometer;
     static final String CHANNEL_ID = "RotationServiceChannel";
+    // Live counters for the diagnostics panel. The service and MainActivity share a process,
+    // so the activity reads these directly; they start from zero each time the service starts.
+    static final Metrics METRICS = new Metrics();
+    // Asks the running service to write its trace to getTraceFile()
+    static final String ACTION_DUMP_TRACE = "com.truffulatree.noflatrotate.DUMP_TRACE";
+    // Sent by MainActivity.migratePreferences() once settings from an older install have been
+    // moved, which replaces the SharedPreferences instance the service is reading
+    static final String ACTION_PREFERENCES_MOVED = "com.truffulatree.noflatrotate.PREFERENCES_MOVED";
+    private static final String TRACE_FILE_NAME = "rotation-trace.bin";
+    // Five minutes at the balanced profile's 10 Hz sampling rate
+    private static final int TRACE_CAPACITY = 3000;
+    // Set by BootReceiver: SystemClock.elapsedRealtime() when the boot broadcast arrived
+    static final String EXTRA_BOOT_BROADCAST_ELAPSED_MS = "com.truffulatree.noflatrotate.BOOT_BROADCAST_ELAPSED_MS";
     static final int NOTIFICATION_ID = 1;
-    private static final int SENSOR_DELAY_MICROS = 100 * 1000; // 100ms
+    // How stale the angle in the published state may get while a client is bound
+    static final int STATE_REFRESH_MILLIS = 250;
+    private static final long STATE_REFRESH_NANOS = STATE_REFRESH_MILLIS * 1_000_000L;
+
+    // Settings snapshots. The main thread publishes a new one whenever a preference changes;
+    // the sensor thread adopts it in applyPublishedConfig(), so every sample is judged against
+    // one consistent snapshot and the per-sample path reads no shared state at all.
+    private volatile DetectionConfig publishedConfig = defaultConfig();
+    private DetectionConfig activeConfig = publishedConfig;
+
+    // The last few minutes of raw samples and what we decided, for explaining a wrong lock.
+    // Preallocated and confined to the sensor thread like the rest of the detection state.
+    private final TraceRecorder traceRecorder = new TraceRecorder(TRACE_CAPACITY);
+
+    // Sensing is suspended while the screen is off, when rotation can't matter. The first sample
+    // after it comes back on is trusted without the dwell time so the lock decision is correct
+    // straight away. Set in onCreate before the screen receiver exists, then only on the sensor
+    // thread.
+    private boolean screenOff = false;
+
+    private boolean sensorRegistered = false;
+    private boolean batchingActive = false;
+    // The sampling period the accelerometer is registered at, or -1 while it isn't
+    private volatile int registeredSamplingPeriodMicros = -1;
+    // Whether the current registration is for the near-threshold rate, with adaptive sampling
+    private boolean registeredNearThreshold = true;
+
+    // Boot timing: how long after the boot broadcast the accelerometer was first registered.
+    // Only the first registration after a boot start is measured; -1 until then.
+    private long bootBroadcastElapsedMillis = -1;
+    private volatile long bootToSensorMillis = -1;
+
+    // All detection state below is confined to this thread: sensor callbacks, the settings
+    // observer, config snapshots and the batching flush are all delivered through sensorHandler,
+    // so none of it competes with the main thread.
+    private HandlerThread sensorThread;
+    private Handler sensorHandler;
+
+    // Settings writes, and the observer callbacks each one sets off, happen on this thread so
+    // a lock or unlock never holds up the next sample. See AsyncRotationSettings.
+    private HandlerThread writerThread;
+
+    // Batched samples arrive back-to-back within one looper callback. The first sample of
+    // a burst posts this runnable, which runs once the whole burst has been consumed and
+    // acts only on the state left by the newest sample.
+    private boolean burstFlushPending = false;
+    private final Runnable burstFlush = new Runnable() {
+        @Override
+        public void run() {
+            burstFlushPending = false;
+            actOnLatestSample();
+        }
+    };
 
-    // Configurable thresholds (loaded from preferences)
-    private float flatThresholdDegrees = MainActivity.DEFAULT_FLAT_THRESHOLD;
-    private float verticalThresholdDegrees = MainActivity.DEFAULT_VERTICAL_THRESHOLD;
+    // Motion gating: once the device has been flat and locked for the configured delay the
+    // accelerometer is switched off and a one-shot motion sensor wakes it up again. Devices
+    // without such a sensor keep sampling as before.
+    private Sensor motionSensor;
+    private boolean motionGated = false;
+    private final TriggerEventListener motionTriggerListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            // Trigger sensors report on the main thread; resume on the sensor thread
+            sensorHandler.post(RotationService.this::resumeFromMotionGate);
+        }
+    };
 
-    private boolean rotationPreviouslyLocked = false;
-    private boolean deviceInFlatMode = false;
+    // Detection and lock decisions, shared with the offline replay tool. Created in onCreate
+    // once the settings writer and the display rotation are available.
+    private RotationController controller;
     private WindowManager windowManager;
-    private int lastStableRotation = Surface.ROTATION_0;
 
-    // Receiver for config changes
-    private final BroadcastReceiver configChangedReceiver = new BroadcastReceiver() {
+    // The display rotation, kept current by displayListener so the sensor path never has to
+    // ask the window manager.
+    private DisplayManager displayManager;
+    private int displayRotation = Surface.ROTATION_0;
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {}
+
+        @Override
+        public void onDisplayRemoved(int displayId) {}
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId != Display.DEFAULT_DISPLAY) {
+                return;
+            }
+            int rotation = getCurrentRotation();
+            if (rotation != displayRotation) {
+                displayRotation = rotation;
+                if (DEBUG) Log.d(TAG, "Display rotation changed to " + rotation);
+            }
+        }
+    };
+
+    // Owns the in-memory copies of the system rotation settings. Reading them on every sample
+    // would be a ContentProvider round-trip, so rotationSettingsObserver refreshes them when the
+    // user changes them (e.g. from Quick Settings) and the writer updates them when we do.
+    // Confined to writerThread; the sensor thread goes through asyncSettings.
+    private RotationSettingsWriter settingsWriter;
+    private AsyncRotationSettings asyncSettings;
+    private ContentObserver rotationSettingsObserver;
+
+    // State for bound clients. The sensor thread replaces the snapshot on every transition and,
+    // while anyone is bound, every STATE_REFRESH_MILLIS; otherwise checking for a transition is
+    // a few compares per act. Listeners are called on their own handlers, never this thread.
+    private volatile RotationState publishedState;
+    private volatile boolean clientsBound = false;
+    private final CopyOnWriteArrayList<ListenerRegistration> stateListeners = new CopyOnWriteArrayList<>();
+    private final LocalBinder binder = new LocalBinder();
+
+    // Called on the main thread once per committed preference change. The settings UI only
+    // commits when a slider is released, so a drag costs one snapshot rather than dozens.
+    // SharedPreferences holds listeners weakly, hence the field. Both are main thread only.
+    private SharedPreferences prefs;
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceChangeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    publishedConfig = readConfig(sharedPreferences);
+                    sensorHandler.post(RotationService.this::applyPublishedConfig);
+                }
+            };
+
+    // Delivered on the main thread, like preference changes
+    private final BroadcastReceiver preferencesMovedReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            if (ACTION_CONFIG_CHANGED.equals(intent.getAction())) {
-                loadThresholdsFromPreferences();
-                Log.d(TAG, "Config changed. New thresholds: flat=" + flatThresholdDegrees + ", vertical=" + verticalThresholdDegrees);
+            reloadPreferences();
+        }
+    };
+
+    // Receiver for screen state, delivered on the sensor thread
+    private final BroadcastReceiver screenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            if (Intent.ACTION_SCREEN_OFF.equals(action)) {
+                suspendForScreenOff();
+            } else if (Intent.ACTION_SCREEN_ON.equals(action) || Intent.ACTION_USER_PRESENT.equals(action)) {
+                resumeForScreenOn();
             }
         }
     };
@@ -59,17 +225,67 @@ public class RotationService extends Service implements SensorEventListener {
         super.onCreate();
         Log.d(TAG, "Service onCreate");
 
-        // Load thresholds from preferences
-        loadThresholdsFromPreferences();
+        sensorThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        writerThread = new HandlerThread(TAG + ".writer", Process.THREAD_PRIORITY_BACKGROUND);
+        writerThread.start();
+        Handler writerHandler = new Handler(writerThread.getLooper());
+        METRICS.reset();
+        METRICS.markStarted(SystemClock.elapsedRealtimeNanos());
+
+        // Load thresholds and sensor mode from preferences, then follow changes to them
+        prefs = MainActivity.getPreferences(this);
+        publishedConfig = readConfig(prefs);
+        activeConfig = publishedConfig;
+        prefs.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+        // Started before the first unlock, the service may be reading an empty file that
+        // settings from an older install are moved into later
+        ContextCompat.registerReceiver(this, preferencesMovedReceiver,
+                new IntentFilter(ACTION_PREFERENCES_MOVED), ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        // Don't start sensing if the screen is already off. Read before the receiver is
+        // registered so it can't overwrite a broadcast; the sensor thread sees it because every
+        // broadcast and sensor start reaches that thread through its handler afterwards.
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        screenOff = powerManager != null && !powerManager.isInteractive();
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
+        screenFilter.addAction(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_USER_PRESENT);
+        ContextCompat.registerReceiver(this, screenStateReceiver, screenFilter, null, sensorHandler,
+                ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        // Watch the rotation settings so the sensor path never has to query them
+        settingsWriter = new RotationSettingsWriter(this, METRICS);
+        // The first read is made here, before the writer thread owns the writer
+        settingsWriter.refresh();
+        asyncSettings = new AsyncRotationSettings(settingsWriter, writerHandler, METRICS);
+        rotationSettingsObserver = new ContentObserver(writerHandler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                asyncSettings.refresh();
+            }
+        };
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.ACCELEROMETER_ROTATION), false, rotationSettingsObserver);
+        getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.USER_ROTATION), false, rotationSettingsObserver);
 
-        // Register config change receiver
-        IntentFilter filter = new IntentFilter(ACTION_CONFIG_CHANGED);
-        ContextCompat.registerReceiver(this, configChangedReceiver, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+        // The rotation before the device is first laid flat is whatever the display shows now
+        windowManager = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
+        displayRotation = getCurrentRotation();
+        controller = new RotationController(activeConfig, asyncSettings, () -> displayRotation, METRICS,
+                traceRecorder);
+        publishedState = snapshotState();
 
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        windowManager = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
         if (sensorManager != null) {
-            accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            // Prefer the explicitly non-wake-up accelerometer so batched samples wait in the
+            // FIFO instead of waking the device; fall back to whatever the default is.
+            accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER, false);
+            if (accelerometer == null) {
+                accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            }
         } else {
             Log.e(TAG, "SensorManager not available. Stopping service.");
             stopSelf();
@@ -80,21 +296,201 @@ public class RotationService extends Service implements SensorEventListener {
             stopSelf();
             return;
         }
-        // Initialize last stable rotation to current display rotation
-        lastStableRotation = getCurrentRotation();
+        motionSensor = findMotionTriggerSensor();
+        Log.d(TAG, "Motion trigger sensor: " + (motionSensor != null ? motionSensor.getName() : "none"));
+
+        displayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
+        if (displayManager != null) {
+            displayManager.registerDisplayListener(displayListener, sensorHandler);
+        }
         createNotificationChannel();
     }
 
+    /**
+     * Returns the looper that runs the detection pipeline.
+     */
+    Looper getSensorLooper() {
+        return sensorThread.getLooper();
+    }
+
+    /**
+     * Returns the looper that writes the rotation settings and watches them for changes.
+     */
+    Looper getSettingsLooper() {
+        return writerThread.getLooper();
+    }
+
     private int getCurrentRotation() {
         // Note: getDefaultDisplay() is deprecated but getDisplay() can't be used from a Service
         // context (only visual contexts like Activity). This is the correct approach for Services.
+        METRICS.increment(Metrics.DISPLAY_QUERIES);
         return windowManager.getDefaultDisplay().getRotation();
     }
 
-    private void loadThresholdsFromPreferences() {
-        SharedPreferences prefs = getSharedPreferences(MainActivity.PREFS_NAME, MODE_PRIVATE);
-        flatThresholdDegrees = prefs.getInt(MainActivity.KEY_FLAT_THRESHOLD, MainActivity.DEFAULT_FLAT_THRESHOLD);
-        verticalThresholdDegrees = prefs.getInt(MainActivity.KEY_VERTICAL_THRESHOLD, MainActivity.DEFAULT_VERTICAL_THRESHOLD);
+    private static DetectionConfig defaultConfig() {
+        return new DetectionConfig.Builder()
+                .thresholds(MainActivity.DEFAULT_FLAT_THRESHOLD, MainActivity.DEFAULT_VERTICAL_THRESHOLD)
+                .dwellMillis(MainActivity.DEFAULT_DWELL_MS)
+                .filterTimeConstantMillis(MainActivity.DEFAULT_FILTER_TIME_CONSTANT_MS)
+                .batchingEnabled(false)
+                .motionGateSeconds(MainActivity.DEFAULT_MOTION_GATE_SECONDS)
+                .traceEnabled(MainActivity.DEFAULT_TRACE_ENABLED)
+                .powerProfile(MainActivity.DEFAULT_POWER_PROFILE)
+                .predictionMillis(MainActivity.DEFAULT_PREDICTION_MS)
+                .adaptiveSampling(MainActivity.DEFAULT_ADAPTIVE_SAMPLING)
+                .build();
+    }
+
+    private static DetectionConfig readConfig(SharedPreferences prefs) {
+        return new DetectionConfig.Builder()
+                .thresholds(prefs.getInt(MainActivity.KEY_FLAT_THRESHOLD, MainActivity.DEFAULT_FLAT_THRESHOLD),
+                        prefs.getInt(MainActivity.KEY_VERTICAL_THRESHOLD, MainActivity.DEFAULT_VERTICAL_THRESHOLD))
+                .dwellMillis(prefs.getInt(MainActivity.KEY_DWELL_MS, MainActivity.DEFAULT_DWELL_MS))
+                .filterTimeConstantMillis(prefs.getInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS,
+                        MainActivity.DEFAULT_FILTER_TIME_CONSTANT_MS))
+                .batchingEnabled(prefs.getBoolean(MainActivity.KEY_SENSOR_BATCHING, false))
+                .motionGateSeconds(prefs.getInt(MainActivity.KEY_MOTION_GATE_SECONDS,
+                        MainActivity.DEFAULT_MOTION_GATE_SECONDS))
+                .traceEnabled(prefs.getBoolean(MainActivity.KEY_TRACE_ENABLED, MainActivity.DEFAULT_TRACE_ENABLED))
+                .powerProfile(prefs.getInt(MainActivity.KEY_POWER_PROFILE, MainActivity.DEFAULT_POWER_PROFILE))
+                .predictionMillis(prefs.getInt(MainActivity.KEY_PREDICTION_MS, MainActivity.DEFAULT_PREDICTION_MS))
+                .adaptiveSampling(prefs.getBoolean(MainActivity.KEY_ADAPTIVE_SAMPLING,
+                        MainActivity.DEFAULT_ADAPTIVE_SAMPLING))
+                .build();
+    }
+
+    /**
+     * Switches to the SharedPreferences instance that now holds the settings and re-reads them.
+     * Moving a preferences file evicts the cached instance for it, so the old one would
+     * neither see the moved values nor hear about later changes.
+     */
+    private void reloadPreferences() {
+        prefs.unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+        prefs = MainActivity.getPreferences(this);
+        prefs.registerOnSharedPreferenceChangeListener(preferenceChangeListener);
+        publishedConfig = readConfig(prefs);
+        sensorHandler.post(this::applyPublishedConfig);
+        Log.d(TAG, "Preferences moved. Reloaded settings.");
+    }
+
+    /**
+     * Adopts the most recently published snapshot. Runs on the sensor thread; several posts
+     * for the same snapshot collapse into one apply.
+     */
+    private void applyPublishedConfig() {
+        DetectionConfig config = publishedConfig;
+        if (config == activeConfig) {
+            return;
+        }
+        DetectionConfig previous = activeConfig;
+        activeConfig = config;
+        controller.applyConfig(config);
+        Log.d(TAG, "Config changed: " + config);
+        if (sensorRegistered && config.needsReregistration(previous)) {
+            unregisterSensorListener();
+            registerSensorListener();
+        }
+        if (motionGated && config.motionGateDelayNanos() == 0) {
+            sensorManager.cancelTriggerSensor(motionTriggerListener, motionSensor);
+            resumeFromMotionGate();
+        }
+    }
+
+    private Sensor findMotionTriggerSensor() {
+        // Motion detect fires on any movement, which is what picking the device up looks like.
+        // Significant motion is more widely available but tuned for walking, so it's the fallback.
+        Sensor motionDetect = sensorManager.getDefaultSensor(Sensor.TYPE_MOTION_DETECT);
+        if (motionDetect != null && motionDetect.getReportingMode() == Sensor.REPORTING_MODE_ONE_SHOT) {
+            return motionDetect;
+        }
+        return sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+    }
+
+    private void registerSensorListener() {
+        if (sensorRegistered || motionGated || screenOff) {
+            return;
+        }
+        // In batching mode the sensor hub queues samples in its FIFO and delivers them in bursts,
+        // so the application processor wakes once per report latency instead of once per sample.
+        // Batching only helps if the sensor has a hardware FIFO to hold samples in.
+        // With adaptive sampling the rate and batching also depend on how near the device is to
+        // the thresholds.
+        boolean nearThreshold = controller.isNearThreshold();
+        batchingActive = activeConfig.batchingEnabled(nearThreshold) && accelerometer.getFifoMaxEventCount() > 0;
+        int samplingPeriodMicros = activeConfig.samplingPeriodMicros(nearThreshold);
+        int maxReportLatencyMicros = batchingActive ? activeConfig.maxReportLatencyMicros() : 0;
+        sensorRegistered = sensorManager.registerListener(this, accelerometer, samplingPeriodMicros,
+                maxReportLatencyMicros, sensorHandler);
+        Log.d(TAG, "Accelerometer registered: " + sensorRegistered + ", period=" + samplingPeriodMicros
+                + "us, batching=" + batchingActive);
+        if (sensorRegistered) {
+            registeredSamplingPeriodMicros = samplingPeriodMicros;
+            registeredNearThreshold = nearThreshold;
+            METRICS.sensorStarted(SystemClock.elapsedRealtimeNanos());
+        }
+        if (sensorRegistered && bootBroadcastElapsedMillis >= 0) {
+            long now = SystemClock.elapsedRealtime();
+            bootToSensorMillis = now - bootBroadcastElapsedMillis;
+            bootBroadcastElapsedMillis = -1;
+            Log.i(TAG, "Accelerometer registered " + bootToSensorMillis + " ms after the boot broadcast, "
+                    + now + " ms after boot");
+        }
+    }
+
+    private void unregisterSensorListener() {
+        sensorManager.unregisterListener(this);
+        sensorHandler.removeCallbacks(burstFlush);
+        burstFlushPending = false;
+        sensorRegistered = false;
+        registeredSamplingPeriodMicros = -1;
+        METRICS.sensorStopped(SystemClock.elapsedRealtimeNanos());
+    }
+
+    private void armMotionGate() {
+        if (!sensorManager.requestTriggerSensor(motionTriggerListener, motionSensor)) {
+            Log.w(TAG, "Could not arm motion trigger. Continuing to sample.");
+            motionSensor = null;
+            return;
+        }
+        unregisterSensorListener();
+        motionGated = true;
+        Log.d(TAG, "Device flat and still. Accelerometer paused until motion.");
+    }
+
+    private void resumeFromMotionGate() {
+        if (!motionGated) {
+            return;
+        }
+        motionGated = false;
+        // The device has moved since the last sample, so the old gravity estimate is stale
+        controller.resetFilter();
+        Log.d(TAG, "Motion detected. Resuming accelerometer.");
+        registerSensorListener();
+    }
+
+    private void suspendForScreenOff() {
+        if (screenOff) {
+            return;
+        }
+        screenOff = true;
+        unregisterSensorListener();
+        // Nothing to wake up for until the screen is back
+        if (motionGated) {
+            sensorManager.cancelTriggerSensor(motionTriggerListener, motionSensor);
+            motionGated = false;
+        }
+        // Any current lock stays in place; it's what the user will want when the screen comes back
+        Log.d(TAG, "Screen off. Accelerometer paused.");
+    }
+
+    private void resumeForScreenOn() {
+        if (!screenOff) {
+            return;
+        }
+        screenOff = false;
+        controller.resync();
+        Log.d(TAG, "Screen on. Resuming accelerometer.");
+        registerSensorListener();
     }
 
     @Override
@@ -115,145 +511,286 @@ public class RotationService extends Service implements SensorEventListener {
 
         startForeground(NOTIFICATION_ID, notification);
 
-        sensorManager.registerListener(this, accelerometer, SENSOR_DELAY_MICROS);
+        if (intent != null && ACTION_DUMP_TRACE.equals(intent.getAction())) {
+            sensorHandler.post(this::dumpTrace);
+        }
+
+        long bootBroadcastElapsed = intent != null ? intent.getLongExtra(EXTRA_BOOT_BROADCAST_ELAPSED_MS, -1) : -1;
+        sensorHandler.post(() -> {
+            if (bootBroadcastElapsed >= 0 && bootToSensorMillis < 0) {
+                bootBroadcastElapsedMillis = bootBroadcastElapsed;
+            }
+            // A (re)start may follow the user granting WRITE_SETTINGS, so check it again
+            asyncSettings.invalidatePermission();
+            registerSensorListener();
+        });
         return START_STICKY;
     }
 
+    /**
+     * Where {@link #ACTION_DUMP_TRACE} writes the trace: app-specific external storage, so it
+     * can be pulled off the device without root, or internal storage if that isn't mounted.
+     */
+    static File getTraceFile(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        return new File(dir != null ? dir : context.getFilesDir(), TRACE_FILE_NAME);
+    }
+
+    private void dumpTrace() {
+        File file = getTraceFile(this);
+        try {
+            traceRecorder.dump(file);
+            Log.i(TAG, "Trace of " + traceRecorder.size() + " samples written to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write trace to " + file + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "Service onDestroy");
 
-        // Unregister config change receiver
+        prefs.unregisterOnSharedPreferenceChangeListener(preferenceChangeListener);
+        unregisterReceiver(preferencesMovedReceiver);
         try {
-            unregisterReceiver(configChangedReceiver);
+            unregisterReceiver(screenStateReceiver);
         } catch (IllegalArgumentException e) {
-            Log.w(TAG, "Config receiver was not registered");
+            Log.w(TAG, "Screen state receiver was not registered");
+        }
+        getContentResolver().unregisterContentObserver(rotationSettingsObserver);
+        if (displayManager != null) {
+            displayManager.unregisterDisplayListener(displayListener);
         }
 
-        if (sensorManager != null) {
-            sensorManager.unregisterListener(this);
+        // Tear down on the sensor thread, after any samples already queued there, so the
+        // final restore can't interleave with a lock decision in flight
+        sensorHandler.post(() -> {
+            if (sensorManager != null) {
+                unregisterSensorListener();
+                if (motionGated) {
+                    sensorManager.cancelTriggerSensor(motionTriggerListener, motionSensor);
+                }
+            }
+            if (controller.isHoldingLock()) {
+                if (controller.releaseLock()) {
+                    Log.d(TAG, "Service destroyed. Re-enabled auto-rotation.");
+                } else {
+                    Log.w(TAG, "Could not re-enable auto-rotation");
+                }
+            }
+            Log.d(TAG, "Settings writes issued: " + settingsWriter.getWritesIssued()
+                    + ", skipped as redundant: " + settingsWriter.getWritesSkipped());
+            Log.d(TAG, "Gravity filter suppressed " + getSuppressedTransitionCount() + " of "
+                    + controller.rawTransitionCount() + " raw flat transitions");
+            // Only now, so the final restore posted above still gets written
+            writerThread.quitSafely();
+        });
+        sensorThread.quitSafely();
+    }
+
+    /**
+     * Queries and change callbacks for clients in this process, such as MainActivity. The
+     * service isn't exported, so there is no AIDL interface.
+     */
+    final class LocalBinder extends Binder {
+
+        /** The latest published state; cheap enough to call from a UI refresh. */
+        RotationState getState() {
+            return publishedState;
         }
-        if (rotationPreviouslyLocked) {
-            setAutoOrientationEnabled();
-            Log.d(TAG, "Service destroyed. Re-enabled auto-rotation.");
+
+        /** The live counters, the same ones {@link #METRICS} holds. */
+        Metrics getMetrics() {
+            return METRICS;
+        }
+
+        /**
+         * Calls {@code listener} on {@code handler} with the new state whenever flat mode, the
+         * lock or the stable rotation changes. A listener added twice is called twice.
+         */
+        void addStateListener(StateListener listener, Handler handler) {
+            stateListeners.add(new ListenerRegistration(listener, handler));
+        }
+
+        /** Stops calls to {@code listener}, including any already posted. */
+        void removeStateListener(StateListener listener) {
+            for (ListenerRegistration registration : stateListeners) {
+                if (registration.listener == listener) {
+                    registration.active = false;
+                    stateListeners.remove(registration);
+                }
+            }
+        }
+    }
+
+    interface StateListener {
+        void onStateChanged(RotationState state);
+    }
+
+    private static final class ListenerRegistration {
+        final StateListener listener;
+        final Handler handler;
+        volatile boolean active = true;
+
+        ListenerRegistration(StateListener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
         }
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        clientsBound = true;
+        return binder;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        // Only called once the last client has gone
+        clientsBound = false;
+        // The binder is cached, so the next client gets onRebind() rather than onBind()
+        return true;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        clientsBound = true;
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            float x = event.values[0];
-            float y = event.values[1];
-            float z = event.values[2];
-
-            // Calculate device orientation angle from vertical
-            double magnitude = Math.sqrt(x * x + y * y + z * z);
-            if (magnitude < 0.1) { // Avoid division by very small numbers
-                Log.w(TAG, "Sensor returned very small magnitude vector: " + magnitude);
+            int result = controller.onAccelerometerSample(event.timestamp, event.values[0], event.values[1],
+                    event.values[2]);
+            if (result != DetectionPipeline.SAMPLE_ACCEPTED) {
+                if (DEBUG && result == DetectionPipeline.SAMPLE_REJECTED) {
+                    Log.v(TAG, "Sensor returned very small magnitude vector");
+                }
                 return;
             }
 
-            // Normalize z component and calculate angle from vertical
-            double normalizedZ = Math.abs(z) / magnitude;
-            normalizedZ = Math.max(0.0, Math.min(1.0, normalizedZ)); // Clamp to valid range
-            double angleFromVertical = Math.acos(normalizedZ) * 180.0 / Math.PI;
-
-            // Implement hysteresis for flat detection using configurable thresholds
-            boolean shouldBeFlat;
-            if (!deviceInFlatMode) {
-                // Not currently in flat mode - transition to flat at flatThresholdDegrees
-                shouldBeFlat = (Math.abs(angleFromVertical) < flatThresholdDegrees) ||
-                               (Math.abs(angleFromVertical - 180.0) < flatThresholdDegrees);
+            if (batchingActive) {
+                // Defer acting until the rest of the burst has been folded into the state
+                if (!burstFlushPending) {
+                    burstFlushPending = true;
+                    METRICS.increment(Metrics.SENSOR_DELIVERIES);
+                    sensorHandler.post(burstFlush);
+                }
             } else {
-                // Currently in flat mode - only exit flat mode at verticalThresholdDegrees
-                shouldBeFlat = (Math.abs(angleFromVertical) < verticalThresholdDegrees) ||
-                               (Math.abs(angleFromVertical - 180.0) < verticalThresholdDegrees);
+                METRICS.increment(Metrics.SENSOR_DELIVERIES);
+                actOnLatestSample();
             }
-
-            // Update the flat mode state
-            deviceInFlatMode = shouldBeFlat;
-
-            handleRotationState(shouldBeFlat, angleFromVertical);
         }
     }
 
-    private void handleRotationState(boolean isFlat, double angle) {
-        try {
-            int currentRotationSetting = Settings.System.getInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
-            boolean rotationEnabled = currentRotationSetting == 1;
+    /**
+     * Milliseconds from the boot broadcast to the first accelerometer registration, or -1 if
+     * this service wasn't started at boot or hasn't registered yet.
+     */
+    long getBootToSensorMillis() {
+        return bootToSensorMillis;
+    }
 
-            // Always track the current display rotation when not flat
-            // This ensures we remember what orientation the user had before laying the device flat
-            if (!isFlat) {
-                lastStableRotation = getCurrentRotation();
-            }
+    /**
+     * The sampling period the accelerometer is currently registered at, or -1 if it isn't.
+     */
+    int getSamplingPeriodMicros() {
+        return registeredSamplingPeriodMicros;
+    }
 
-            if (isFlat) {
-                if (rotationEnabled) {
-                    lockRotationToStable();
-                    rotationPreviouslyLocked = true;
-                    Log.d(TAG, "Device is flat. Locking to last stable rotation: " + lastStableRotation + ". Angle from vertical: " + String.format("%.1f", angle));
-                }
-            } else {
-                if (!rotationEnabled && rotationPreviouslyLocked) {
-                    unlockRotation();
-                    rotationPreviouslyLocked = false;
-                    Log.d(TAG, "Device is not flat. Unlocking screen rotation. Angle from vertical: " + String.format("%.1f", angle));
-                } else if (rotationEnabled && rotationPreviouslyLocked) {
-                    rotationPreviouslyLocked = false;
-                    Log.d(TAG, "Device is not flat. Rotation already enabled externally. Resetting lock flag. Angle from vertical: " + String.format("%.1f", angle));
-                }
+    /**
+     * Flat/not-flat transitions the raw accelerometer signal would have caused that the
+     * gravity filter kept from reaching the lock logic.
+     */
+    long getSuppressedTransitionCount() {
+        return controller.suppressedTransitionCount();
+    }
+
+    private void actOnLatestSample() {
+        try {
+            int action = controller.act();
+            if (action == LockStateMachine.ACTION_LOCK || action == LockStateMachine.ACTION_UNLOCK) {
+                // Sensor timestamps are on the elapsedRealtimeNanos clock
+                METRICS.recordLatency(Metrics.LATENCY_DETECTION,
+                        SystemClock.elapsedRealtimeNanos() - controller.lastTimestampNanos());
             }
+            if (DEBUG) logAction(action);
         } catch (SecurityException e) {
+            METRICS.increment(Metrics.ROTATION_ERRORS);
             Log.e(TAG, "SecurityException while accessing settings: " + e.getMessage());
         } catch (Exception e) {
+            METRICS.increment(Metrics.ROTATION_ERRORS);
             Log.e(TAG, "Unexpected error handling rotation state: " + e.getMessage());
         }
+        publishStateIfChanged();
+        if (motionSensor != null && controller.isReadyForMotionGate()) {
+            armMotionGate();
+        }
+        if (sensorRegistered && activeConfig.adaptiveSampling()
+                && controller.isNearThreshold() != registeredNearThreshold) {
+            switchSamplingRate();
+        }
     }
 
-    private void lockRotationToStable() {
-        try {
-            if (Settings.System.canWrite(getApplicationContext())) {
-                // Use the last stable rotation (captured when device was not flat)
-                // This prevents locking to a transitional orientation
-                Settings.System.putInt(getContentResolver(), Settings.System.USER_ROTATION, lastStableRotation);
-                Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 0);
-            } else {
-                Log.w(TAG, "Cannot write settings. WRITE_SETTINGS permission not granted.");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error locking screen rotation: " + e.getMessage());
+    /**
+     * Publishes a new state if anything listeners care about has changed, or if a client is
+     * bound and the angle is due a refresh. Runs on the sensor thread after every act.
+     */
+    private void publishStateIfChanged() {
+        RotationState state = publishedState;
+        boolean transition = controller.isFlatMode() != state.isFlatMode()
+                || controller.isHoldingLock() != state.isLocked()
+                || controller.lastStableRotation() != state.lastStableRotation();
+        if (!transition && !(clientsBound
+                && controller.lastTimestampNanos() - state.timestampNanos() >= STATE_REFRESH_NANOS)) {
+            return;
+        }
+        RotationState newState = snapshotState();
+        publishedState = newState;
+        if (!transition) {
+            return;
+        }
+        for (ListenerRegistration registration : stateListeners) {
+            registration.handler.post(() -> {
+                if (registration.active) {
+                    registration.listener.onStateChanged(newState);
+                }
+            });
         }
     }
 
-    private void unlockRotation() {
-        try {
-            if (Settings.System.canWrite(getApplicationContext())) {
-                // Simply re-enable auto-rotation without changing USER_ROTATION
-                Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
-            } else {
-                Log.w(TAG, "Cannot write settings. WRITE_SETTINGS permission not granted.");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error unlocking screen rotation: " + e.getMessage());
-        }
+    private RotationState snapshotState() {
+        return new RotationState(controller.isFlatMode(), controller.isHoldingLock(),
+                controller.lastStableRotation(), controller.lastAngleFromVertical(),
+                controller.lastTimestampNanos());
     }
 
-    private void setAutoOrientationEnabled() {
-        try {
-            if (Settings.System.canWrite(getApplicationContext())) {
-                Settings.System.putInt(getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
-            } else {
-                Log.w(TAG, "Cannot write settings. WRITE_SETTINGS permission not granted.");
-            }
-        } catch (Exception e) { // Catching a broad exception as putInt can also throw SecurityException
-            Log.e(TAG, "Error changing screen rotation setting: " + e.getMessage());
+    /**
+     * Re-registers the accelerometer at the rate for the zone the device has moved into.
+     */
+    private void switchSamplingRate() {
+        METRICS.increment(Metrics.SAMPLING_RATE_SWITCHES);
+        if (DEBUG) Log.d(TAG, "Device moved " + (controller.isNearThreshold() ? "near" : "away from")
+                + " the thresholds. Angle from vertical: " + controller.lastAngleFromVertical());
+        unregisterSensorListener();
+        registerSensorListener();
+    }
+
+    private void logAction(int action) {
+        switch (action) {
+            case LockStateMachine.ACTION_LOCK:
+                Log.d(TAG, (controller.isPredictedFlat() ? "Device is being laid down" : "Device is flat")
+                        + ". Locking to last stable rotation: " + controller.lastStableRotation() + ". Angle from vertical: " + controller.lastAngleFromVertical());
+                break;
+            case LockStateMachine.ACTION_UNLOCK:
+                Log.d(TAG, "Device is not flat. Unlocking screen rotation. Angle from vertical: " + controller.lastAngleFromVertical());
+                break;
+            case LockStateMachine.ACTION_RESET:
+                Log.d(TAG, "Device is not flat. Rotation already enabled externally. Resetting lock flag. Angle from vertical: " + controller.lastAngleFromVertical());
+                break;
+            default:
+                break;
         }
     }
 
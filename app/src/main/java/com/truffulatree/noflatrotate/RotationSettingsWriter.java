@@ -0,0 +1,160 @@
+package com.truffulatree.noflatrotate;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.Surface;
+
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.RotationSettings;
+
+/**
+ * The single path for every write to the system rotation settings.
+ *
+ * Each putInt notifies every ContentObserver on the system, so the writer remembers the
+ * current value of each setting and skips writes that wouldn't change it. Those values are
+ * also what the service reads instead of querying Settings; call {@link #refresh()} when the
+ * settings change from outside. The WRITE_SETTINGS check is cached as well, until a write
+ * fails with a SecurityException or {@link #invalidatePermission()} is called.
+ */
+final class RotationSettingsWriter implements RotationSettings {
+
+    private static final String TAG = "RotationSettingsWriter";
+
+    private static final int PERMISSION_UNKNOWN = 0;
+    private static final int PERMISSION_GRANTED = 1;
+    private static final int PERMISSION_DENIED = 2;
+
+    private final Context context;
+    private final ContentResolver contentResolver;
+    private final Metrics metrics;
+
+    private int accelerometerRotation = 1;
+    private int userRotation = Surface.ROTATION_0;
+    private int permission = PERMISSION_UNKNOWN;
+
+    RotationSettingsWriter(Context context) {
+        this(context, new Metrics());
+    }
+
+    /**
+     * @param metrics where reads, permission checks and writes issued and skipped are counted
+     */
+    RotationSettingsWriter(Context context, Metrics metrics) {
+        this.context = context.getApplicationContext();
+        this.contentResolver = context.getContentResolver();
+        this.metrics = metrics;
+    }
+
+    /**
+     * Re-reads both settings. Call on startup and whenever they change outside this writer.
+     */
+    void refresh() {
+        accelerometerRotation = Settings.System.getInt(contentResolver, Settings.System.ACCELEROMETER_ROTATION, 1);
+        userRotation = Settings.System.getInt(contentResolver, Settings.System.USER_ROTATION, Surface.ROTATION_0);
+        // One binder call per setting
+        metrics.increment(Metrics.SETTINGS_READS);
+        metrics.increment(Metrics.SETTINGS_READS);
+        Log.d(TAG, "Rotation settings refreshed: auto=" + accelerometerRotation + ", user=" + userRotation);
+    }
+
+    @Override
+    public boolean isAutoRotateEnabled() {
+        return accelerometerRotation == 1;
+    }
+
+    int getUserRotation() {
+        return userRotation;
+    }
+
+    /**
+     * Disables auto-rotation with the screen held at the given {@link Surface} rotation.
+     *
+     * @return false if the settings could not be written
+     */
+    @Override
+    public boolean lockRotation(int rotation) {
+        if (!hasPermission()) {
+            return false;
+        }
+        // Set the orientation before turning auto-rotate off so the display never passes through a stale one
+        return putUserRotation(rotation) && putAccelerometerRotation(0);
+    }
+
+    /**
+     * @return false if the setting could not be written
+     */
+    @Override
+    public boolean setAutoRotateEnabled(boolean enabled) {
+        if (!hasPermission()) {
+            return false;
+        }
+        return putAccelerometerRotation(enabled ? 1 : 0);
+    }
+
+    /**
+     * Forgets the cached WRITE_SETTINGS result, e.g. after the user may have granted it.
+     */
+    void invalidatePermission() {
+        permission = PERMISSION_UNKNOWN;
+    }
+
+    long getWritesIssued() {
+        return metrics.get(Metrics.SETTINGS_WRITES_ISSUED);
+    }
+
+    long getWritesSkipped() {
+        return metrics.get(Metrics.SETTINGS_WRITES_SKIPPED);
+    }
+
+    private boolean hasPermission() {
+        if (permission == PERMISSION_UNKNOWN) {
+            permission = Settings.System.canWrite(context) ? PERMISSION_GRANTED : PERMISSION_DENIED;
+            metrics.increment(Metrics.PERMISSION_CHECKS);
+            if (permission == PERMISSION_DENIED) {
+                // Logged once per check rather than on every attempted write
+                Log.w(TAG, "Cannot write settings. WRITE_SETTINGS permission not granted.");
+            }
+        }
+        return permission == PERMISSION_GRANTED;
+    }
+
+    private boolean putAccelerometerRotation(int value) {
+        if (accelerometerRotation == value) {
+            metrics.increment(Metrics.SETTINGS_WRITES_SKIPPED);
+            return true;
+        }
+        if (!putInt(Settings.System.ACCELEROMETER_ROTATION, value)) {
+            return false;
+        }
+        accelerometerRotation = value;
+        return true;
+    }
+
+    private boolean putUserRotation(int value) {
+        if (userRotation == value) {
+            metrics.increment(Metrics.SETTINGS_WRITES_SKIPPED);
+            return true;
+        }
+        if (!putInt(Settings.System.USER_ROTATION, value)) {
+            return false;
+        }
+        userRotation = value;
+        return true;
+    }
+
+    private boolean putInt(String name, int value) {
+        try {
+            Settings.System.putInt(contentResolver, name, value);
+            metrics.increment(Metrics.SETTINGS_WRITES_ISSUED);
+            return true;
+        } catch (SecurityException e) {
+            permission = PERMISSION_DENIED;
+            Log.e(TAG, "SecurityException writing " + name + ": " + e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing " + name + ": " + e.getMessage());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,56 @@
+package com.truffulatree.noflatrotate;
+
+/**
+ * An immutable snapshot of what the running service has decided, for clients bound through
+ * {@link RotationService.LocalBinder}. A new one is published on every change of flat mode,
+ * lock or stable rotation, and, while a client is bound, refreshed often enough to keep the
+ * angle current; see {@link RotationService#STATE_REFRESH_MILLIS}.
+ */
+final class RotationState {
+
+    private final boolean flatMode;
+    private final boolean locked;
+    private final int lastStableRotation;
+    private final double angleFromVertical;
+    private final long timestampNanos;
+
+    RotationState(boolean flatMode, boolean locked, int lastStableRotation, double angleFromVertical,
+                  long timestampNanos) {
+        this.flatMode = flatMode;
+        this.locked = locked;
+        this.lastStableRotation = lastStableRotation;
+        this.angleFromVertical = angleFromVertical;
+        this.timestampNanos = timestampNanos;
+    }
+
+    /** Whether the device is treated as lying flat, debounced or predicted. */
+    boolean isFlatMode() {
+        return flatMode;
+    }
+
+    /** Whether auto-rotation is off because the service turned it off. */
+    boolean isLocked() {
+        return locked;
+    }
+
+    /** The Surface rotation a lock holds, or would hold if the device went flat now. */
+    int lastStableRotation() {
+        return lastStableRotation;
+    }
+
+    /** Degrees from lying flat at the last sample; 90 before the first one. */
+    double angleFromVertical() {
+        return angleFromVertical;
+    }
+
+    /** Timestamp of the sample this snapshot was taken at, on the sensor's clock, or 0. */
+    long timestampNanos() {
+        return timestampNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RotationState{flat=" + flatMode + ", locked=" + locked + ", stableRotation=" + lastStableRotation
+                + ", angle=" + angleFromVertical + "}";
+    }
+}
@@ -0,0 +1,106 @@
+package com.truffulatree.noflatrotate;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.Settings;
+import android.view.Surface;
+
+import com.truffulatree.noflatrotate.core.Metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class AsyncRotationSettingsTest {
+
+    private Context context;
+    private Metrics metrics;
+    private AsyncRotationSettings settings;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        ShadowSettings.ShadowSystem.setCanWrite(true);
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        Settings.System.putInt(context.getContentResolver(), Settings.System.USER_ROTATION, Surface.ROTATION_0);
+        metrics = new Metrics();
+        RotationSettingsWriter writer = new RotationSettingsWriter(context, metrics);
+        writer.refresh();
+        // The main looper stands in for the writer thread; nothing runs on it until it is idled
+        settings = new AsyncRotationSettings(writer, new Handler(Looper.getMainLooper()), metrics);
+    }
+
+    // ==================== Latest-Wins Tests ====================
+
+    @Test
+    public void lockRotation_returnsBeforeWriting() {
+        assertTrue("Queuing a lock should succeed", settings.lockRotation(Surface.ROTATION_90));
+
+        assertEquals("Nothing should be written until the writer runs", 1,
+                getSetting(Settings.System.ACCELEROMETER_ROTATION));
+        assertFalse("Auto-rotate should already read as off", settings.isAutoRotateEnabled());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals("Auto-rotate should be off once written", 0, getSetting(Settings.System.ACCELEROMETER_ROTATION));
+        assertEquals("Rotation should be held at 90", Surface.ROTATION_90, getSetting(Settings.System.USER_ROTATION));
+        assertEquals("Actuation latency should be measured", 1, metrics.latencyCount(Metrics.LATENCY_ACTUATION));
+    }
+
+    @Test
+    public void staleTargets_areDroppedForTheNewest() {
+        settings.lockRotation(Surface.ROTATION_90);
+        settings.lockRotation(Surface.ROTATION_180);
+        settings.setAutoRotateEnabled(true);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals("Only the unlock should have been applied, and it changes nothing", 0,
+                metrics.get(Metrics.SETTINGS_WRITES_ISSUED));
+        assertEquals("Rotation should never have been held", Surface.ROTATION_0,
+                getSetting(Settings.System.USER_ROTATION));
+        assertEquals("Both locks should be counted as superseded", 2,
+                metrics.get(Metrics.SETTINGS_TARGETS_SUPERSEDED));
+        assertEquals("One write pass should have run", 1, metrics.latencyCount(Metrics.LATENCY_ACTUATION));
+    }
+
+    @Test
+    public void failedWrite_showsUpOnceApplied() {
+        ShadowSettings.ShadowSystem.setCanWrite(false);
+        settings.lockRotation(Surface.ROTATION_90);
+        assertFalse("Lock should read as applied while it is pending", settings.isAutoRotateEnabled());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertTrue("A lock that couldn't be written should read as auto-rotate on", settings.isAutoRotateEnabled());
+    }
+
+    @Test
+    public void refresh_picksUpExternalChange() {
+        settings.lockRotation(Surface.ROTATION_0);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        // The user turns auto-rotate back on from Quick Settings
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        settings.refresh();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue("Settings should see the external change", settings.isAutoRotateEnabled());
+    }
+
+    // ==================== Helper Methods ====================
+
+    private int getSetting(String name) {
+        return Settings.System.getInt(context.getContentResolver(), name, -1);
+    }
+}
@@ -15,6 +15,7 @@ import org.robolectric.annotation.Config;
 import org.robolectric.shadows.ShadowApplication;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -31,7 +32,7 @@ public class BootReceiverTest {
     public void setUp() {
         context = RuntimeEnvironment.getApplication();
         bootReceiver = new BootReceiver();
-        prefs = context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE);
+        prefs = MainActivity.getPreferences(context);
         // Clear preferences before each test
         prefs.edit().clear().apply();
     }
@@ -91,6 +92,48 @@ public class BootReceiverTest {
                 startedService.getComponent().getClassName());
     }
 
+    @Test
+    public void bootReceiver_startsService_onLockedBootCompleted() {
+        prefs.edit().putBoolean(MainActivity.KEY_START_ON_BOOT, true).apply();
+
+        // Simulate the broadcast sent before the user first unlocks
+        bootReceiver.onReceive(context, new Intent(Intent.ACTION_LOCKED_BOOT_COMPLETED));
+
+        ShadowApplication shadowApplication = Shadows.shadowOf(RuntimeEnvironment.getApplication());
+        Intent startedService = shadowApplication.getNextStartedService();
+
+        assertNotNull("Service should be started before unlock", startedService);
+        assertEquals("Started service should be RotationService",
+                RotationService.class.getName(),
+                startedService.getComponent().getClassName());
+    }
+
+    @Test
+    public void bootReceiver_stampsBroadcastTime() {
+        bootReceiver.onReceive(context, new Intent(Intent.ACTION_BOOT_COMPLETED));
+
+        ShadowApplication shadowApplication = Shadows.shadowOf(RuntimeEnvironment.getApplication());
+        Intent startedService = shadowApplication.getNextStartedService();
+
+        assertNotNull("Service should be started by default", startedService);
+        assertTrue("Start intent should carry the boot broadcast time",
+                startedService.getLongExtra(RotationService.EXTRA_BOOT_BROADCAST_ELAPSED_MS, -1) >= 0);
+    }
+
+    @Test
+    public void bootCompleted_migratesPreferencesFromCredentialStorage() {
+        // Settings written by a version that kept them in credential-protected storage
+        context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().putBoolean(MainActivity.KEY_START_ON_BOOT, false).commit();
+
+        bootReceiver.onReceive(context, new Intent(Intent.ACTION_BOOT_COMPLETED));
+
+        ShadowApplication shadowApplication = Shadows.shadowOf(RuntimeEnvironment.getApplication());
+        assertNull("Migrated start on boot setting should be honoured", shadowApplication.getNextStartedService());
+        assertFalse("Setting should now be in device-protected storage",
+                MainActivity.getPreferences(context).getBoolean(MainActivity.KEY_START_ON_BOOT, true));
+    }
+
     @Test
     public void bootReceiver_ignoresOtherIntents() {
         // Enable start on boot
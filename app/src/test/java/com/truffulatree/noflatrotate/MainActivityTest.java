@@ -1,21 +1,34 @@
 package com.truffulatree.noflatrotate;
 
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Build;
+import android.os.Looper;
 import android.view.View;
 import android.widget.Button;
+import android.widget.RadioGroup;
+import android.widget.SeekBar;
 import android.widget.TextView;
 
 import androidx.test.core.app.ActivityScenario;
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.PowerProfile;
+
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
 
 @RunWith(AndroidJUnit4.class)
 @Config(sdk = {Build.VERSION_CODES.P})
@@ -67,6 +80,95 @@ public class MainActivityTest {
         });
     }
 
+    @Test
+    public void diagnosticsPanel_showsServiceCounters() {
+        RotationService.METRICS.reset();
+        for (int i = 0; i < 3; i++) {
+            RotationService.METRICS.increment(Metrics.SAMPLES_PROCESSED);
+        }
+        RotationService.METRICS.increment(Metrics.FLAT_ENTRIES);
+
+        scenario = ActivityScenario.launch(MainActivity.class);
+
+        scenario.onActivity(activity -> {
+            String diagnostics = ((TextView) activity.findViewById(R.id.diagnostics_text)).getText().toString();
+            assertTrue("Panel should show samples processed", diagnostics.contains("Samples processed: 3"));
+            assertTrue("Panel should show flat entries", diagnostics.contains("Flat entries: 1"));
+        });
+        RotationService.METRICS.reset();
+    }
+
+    @Test
+    public void diagnosticsPanel_showsBoundServiceState() {
+        Context context = RuntimeEnvironment.getApplication();
+        RotationService service = Robolectric.buildService(RotationService.class).create().get();
+        shadowOf(RuntimeEnvironment.getApplication()).setComponentNameAndServiceForBindService(
+                new ComponentName(context, RotationService.class), service.onBind(new Intent()));
+
+        scenario = ActivityScenario.launch(MainActivity.class);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        scenario.onActivity(activity -> {
+            String diagnostics = ((TextView) activity.findViewById(R.id.diagnostics_text)).getText().toString();
+            assertTrue("Panel should show the service's lock state", diagnostics.contains("Locked: false"));
+        });
+    }
+
+    @Test
+    public void powerProfileSelection_savesProfileAndSmoothingPreset() {
+        scenario = ActivityScenario.launch(MainActivity.class);
+
+        scenario.onActivity(activity -> {
+            RadioGroup group = activity.findViewById(R.id.power_profile_group);
+            group.check(R.id.power_profile_responsive);
+
+            SharedPreferences prefs = MainActivity.getPreferences(activity);
+            assertEquals("Profile should be saved", PowerProfile.RESPONSIVE,
+                    prefs.getInt(MainActivity.KEY_POWER_PROFILE, MainActivity.DEFAULT_POWER_PROFILE));
+            int preset = PowerProfile.filterTimeConstantMillis(PowerProfile.RESPONSIVE);
+            assertEquals("Smoothing should move to the profile's preset", preset,
+                    prefs.getInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, MainActivity.DEFAULT_FILTER_TIME_CONSTANT_MS));
+            assertEquals("Smoothing slider should follow", preset,
+                    ((SeekBar) activity.findViewById(R.id.filter_seekbar)).getProgress());
+        });
+    }
+
+    @Test
+    public void thresholdDrag_writesPreferenceOnceOnRelease() {
+        scenario = ActivityScenario.launch(MainActivity.class);
+
+        scenario.onActivity(activity -> {
+            SeekBar seekBar = activity.findViewById(R.id.flat_threshold_seekbar);
+            TextView label = activity.findViewById(R.id.flat_threshold_value);
+            SeekBar.OnSeekBarChangeListener listener = shadowOf(seekBar).getOnSeekBarChangeListener();
+            SharedPreferences prefs = MainActivity.getPreferences(activity);
+            int[] writes = {0};
+            SharedPreferences.OnSharedPreferenceChangeListener counter = (changed, key) -> {
+                if (MainActivity.KEY_FLAT_THRESHOLD.equals(key)) {
+                    writes[0]++;
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(counter);
+
+            listener.onStartTrackingTouch(seekBar);
+            for (int value = 11; value <= 15; value++) {
+                seekBar.setProgress(value);
+                listener.onProgressChanged(seekBar, value, true);
+                assertEquals("Label should follow every step of the drag",
+                        activity.getString(R.string.degree_format, value), label.getText().toString());
+            }
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals("Nothing should be written while dragging", 0, writes[0]);
+
+            listener.onStopTrackingTouch(seekBar);
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals("The drag should be written once, on release", 1, writes[0]);
+            assertEquals("The released value should be saved", 15,
+                    prefs.getInt(MainActivity.KEY_FLAT_THRESHOLD, MainActivity.DEFAULT_FLAT_THRESHOLD));
+            prefs.unregisterOnSharedPreferenceChangeListener(counter);
+        });
+    }
+
     @Test
     public void serviceIntent_canBeCreated() {
         scenario = ActivityScenario.launch(MainActivity.class);
@@ -0,0 +1,311 @@
+package com.truffulatree.noflatrotate;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.provider.Settings;
+import android.view.Display;
+
+import com.truffulatree.noflatrotate.core.PowerProfile;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.ShadowDisplay;
+import org.robolectric.shadows.ShadowSensor;
+import org.robolectric.shadows.ShadowSensorManager;
+import org.robolectric.shadows.ShadowSettings;
+import org.robolectric.util.reflector.Direct;
+import org.robolectric.util.reflector.ForType;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+import static org.robolectric.util.reflector.Reflector.reflector;
+
+/**
+ * Holds the service to a budget of system service calls per sensor event.
+ *
+ * Long synthetic streams are fed through a running RotationService and the Settings reads,
+ * Settings writes, WRITE_SETTINGS checks and display queries it makes are counted by the
+ * shadows below, at the framework methods every such call ends up in. They see a call made
+ * from anywhere in the app, not just the ones the service counts itself. A change that adds
+ * a call per sample fails here long before it shows up as battery drain.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P},
+        shadows = {RotationServiceIpcBudgetTest.CountingSettingsSystem.class,
+                RotationServiceIpcBudgetTest.CountingDisplay.class})
+public class RotationServiceIpcBudgetTest {
+
+    private static final float GRAVITY = 9.81f;
+    // One sample per sampling period of the default power profile, as the service asks for
+    private static final long SAMPLE_INTERVAL_NANOS =
+            PowerProfile.samplingPeriodMicros(MainActivity.DEFAULT_POWER_PROFILE) * 1000L;
+    private static final int EVENTS = 10_000;
+    // Long enough for the gravity filter and any dwell time to settle
+    private static final int EVENTS_PER_PICKUP_PHASE = 300;
+
+    // A device held still costs nothing per sample; the single lock or unlock it starts with
+    // is all that fits under one call per 1000 events.
+    private static final Budget STEADY = new Budget(1, 1, 1, 1);
+    // Picking the device up and putting it down every 300 samples may pay for each lock and
+    // unlock, and for the settings refresh that follows each write, but never per sample.
+    private static final Budget PICKUP = new Budget(24, 12, 1, 1);
+    // Everything the service may do between onCreate and its first sample
+    private static final Budget STARTUP = new Budget(2, 0, 1, 1);
+
+    private Context context;
+    private SensorManager sensorManager;
+    private RotationService service;
+    private long timestampNanos;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        ShadowSettings.ShadowSystem.setCanWrite(true);
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        Settings.System.putInt(context.getContentResolver(), Settings.System.USER_ROTATION, 0);
+        timestampNanos = 0;
+        // Only what the service does counts, not the setup above
+        CountingSettingsSystem.reads = 0;
+        CountingSettingsSystem.writes = 0;
+        CountingSettingsSystem.permissionChecks = 0;
+        CountingDisplay.rotationQueries = 0;
+    }
+
+    // ==================== Startup Tests ====================
+
+    @Test
+    public void startup_staysWithinBudget() {
+        startService();
+        // Checked against 1000 events so the budget reads as an absolute count
+        STARTUP.check("startup", Counts.snapshot(), 1000);
+    }
+
+    // ==================== Stream Tests ====================
+
+    @Test
+    public void flatStream_staysWithinBudget() {
+        startService();
+        Counts before = Counts.snapshot();
+        for (int i = 0; i < EVENTS; i++) {
+            sendSample(0.1f, -0.1f, GRAVITY);
+        }
+        Counts used = Counts.snapshot().minus(before);
+
+        assertTrue("Harness should see the lock the flat stream causes", used.settingsWrites > 0);
+        STEADY.check("flat", used, EVENTS);
+    }
+
+    @Test
+    public void tiltedStream_staysWithinBudget() {
+        startService();
+        Counts before = Counts.snapshot();
+        // Wobbling inside the hysteresis band, between the flat and vertical thresholds
+        for (int i = 0; i < EVENTS; i++) {
+            double degrees = 25 + 3 * Math.sin(i * 0.05);
+            sendTilted(degrees);
+        }
+        Counts used = Counts.snapshot().minus(before);
+
+        STEADY.check("tilted", used, EVENTS);
+    }
+
+    @Test
+    public void noisyFlatStream_staysWithinBudget() {
+        startService();
+        Random random = new Random(42);
+        Counts before = Counts.snapshot();
+        for (int i = 0; i < EVENTS; i++) {
+            float noise = (float) random.nextGaussian() * 1.5f;
+            // An occasional sharp tap on the table
+            float tap = random.nextInt(200) == 0 ? 6f : 0f;
+            sendSample(noise + tap, (float) random.nextGaussian() * 1.5f,
+                    GRAVITY + (float) random.nextGaussian() * 1.5f);
+        }
+        Counts used = Counts.snapshot().minus(before);
+
+        STEADY.check("noisy flat", used, EVENTS);
+    }
+
+    @Test
+    public void pickUpPutDownStream_staysWithinBudget() {
+        startService();
+        Counts before = Counts.snapshot();
+        for (int i = 0; i < EVENTS; i++) {
+            boolean onTable = (i / EVENTS_PER_PICKUP_PHASE) % 2 == 0;
+            if (onTable) {
+                sendSample(0f, 0f, GRAVITY);
+            } else {
+                sendTilted(70);
+            }
+        }
+        Counts used = Counts.snapshot().minus(before);
+
+        assertTrue("Harness should see a write for every lock and unlock",
+                used.settingsWrites >= EVENTS / EVENTS_PER_PICKUP_PHASE - 1);
+        PICKUP.check("pick up/put down", used, EVENTS);
+    }
+
+    // ==================== Helper Methods ====================
+
+    private void startService() {
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        shadowOf(sensorManager).addSensor(ShadowSensor.newInstance(Sensor.TYPE_ACCELEROMETER));
+        service = Robolectric.buildService(RotationService.class)
+                .create()
+                .startCommand(0, 1)
+                .get();
+        // Listener registration happens on the service's sensor thread
+        idle();
+    }
+
+    /**
+     * A device tilted {@code degrees} away from lying flat, top edge up.
+     */
+    private void sendTilted(double degrees) {
+        double radians = Math.toRadians(degrees);
+        sendSample(0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)));
+    }
+
+    private void sendSample(float x, float y, float z) {
+        timestampNanos += SAMPLE_INTERVAL_NANOS;
+        SensorEvent event = ShadowSensorManager.createSensorEvent(3, Sensor.TYPE_ACCELEROMETER);
+        event.values[0] = x;
+        event.values[1] = y;
+        event.values[2] = z;
+        event.timestamp = timestampNanos;
+        shadowOf(sensorManager).sendSensorEventToListeners(event);
+        idle();
+    }
+
+    /**
+     * Runs the sample on the sensor thread, then any settings write it handed on, so each
+     * lock or unlock is counted before the next sample arrives.
+     */
+    private void idle() {
+        shadowOf(service.getSensorLooper()).idle();
+        shadowOf(service.getSettingsLooper()).idle();
+    }
+
+    private static final class Counts {
+        final long settingsReads;
+        final long settingsWrites;
+        final long permissionChecks;
+        final long displayQueries;
+
+        Counts(long settingsReads, long settingsWrites, long permissionChecks, long displayQueries) {
+            this.settingsReads = settingsReads;
+            this.settingsWrites = settingsWrites;
+            this.permissionChecks = permissionChecks;
+            this.displayQueries = displayQueries;
+        }
+
+        static Counts snapshot() {
+            return new Counts(CountingSettingsSystem.reads, CountingSettingsSystem.writes,
+                    CountingSettingsSystem.permissionChecks, CountingDisplay.rotationQueries);
+        }
+
+        Counts minus(Counts other) {
+            return new Counts(settingsReads - other.settingsReads, settingsWrites - other.settingsWrites,
+                    permissionChecks - other.permissionChecks, displayQueries - other.displayQueries);
+        }
+    }
+
+    /**
+     * Most calls of each kind allowed per 1000 sensor events.
+     */
+    private static final class Budget {
+        final double settingsReads;
+        final double settingsWrites;
+        final double permissionChecks;
+        final double displayQueries;
+
+        Budget(double settingsReads, double settingsWrites, double permissionChecks, double displayQueries) {
+            this.settingsReads = settingsReads;
+            this.settingsWrites = settingsWrites;
+            this.permissionChecks = permissionChecks;
+            this.displayQueries = displayQueries;
+        }
+
+        void check(String scenario, Counts used, int events) {
+            checkOne(scenario, "Settings reads", used.settingsReads, events, settingsReads);
+            checkOne(scenario, "Settings writes", used.settingsWrites, events, settingsWrites);
+            checkOne(scenario, "WRITE_SETTINGS checks", used.permissionChecks, events, permissionChecks);
+            checkOne(scenario, "display queries", used.displayQueries, events, displayQueries);
+        }
+
+        private static void checkOne(String scenario, String what, long count, int events, double budget) {
+            double per1000 = count * 1000.0 / events;
+            assertTrue(String.format(Locale.ROOT, "%s: %d %s over %d events is %.2f per 1000, over the budget of %.2f",
+                    scenario, count, what, events, per1000, budget), per1000 <= budget);
+        }
+    }
+
+    /**
+     * Counts Settings.System reads and writes where every typed getter and setter ends up,
+     * and WRITE_SETTINGS checks, then hands each call on to Robolectric's own shadow.
+     */
+    @Implements(Settings.System.class)
+    public static class CountingSettingsSystem extends ShadowSettings.ShadowSystem {
+
+        static long reads;
+        static long writes;
+        static long permissionChecks;
+
+        @Implementation
+        protected static String getStringForUser(ContentResolver cr, String name, int userHandle) {
+            reads++;
+            return ShadowSettings.ShadowSystem.getStringForUser(cr, name, userHandle);
+        }
+
+        @Implementation
+        protected static boolean putStringForUser(ContentResolver cr, String name, String value, int userHandle) {
+            writes++;
+            return ShadowSettings.ShadowSystem.putStringForUser(cr, name, value, userHandle);
+        }
+
+        @Implementation
+        protected static boolean canWrite(Context context) {
+            permissionChecks++;
+            return ShadowSettings.ShadowSystem.canWrite(context);
+        }
+    }
+
+    /**
+     * Counts rotation queries on any Display.
+     */
+    @Implements(Display.class)
+    public static class CountingDisplay extends ShadowDisplay {
+
+        static long rotationQueries;
+
+        @RealObject
+        private Display display;
+
+        @Implementation
+        protected int getRotation() {
+            rotationQueries++;
+            return reflector(DisplayReflector.class, display).getRotation();
+        }
+    }
+
+    @ForType(Display.class)
+    interface DisplayReflector {
+        @Direct
+        int getRotation();
+    }
+}
@@ -3,23 +3,50 @@ package com.truffulatree.noflatrotate;
 import android.content.Context;
 import android.content.Intent;
 import android.hardware.Sensor;
+import android.hardware.SensorEvent;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEventListener;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.hardware.display.DisplayManager;
+import android.provider.Settings;
+import android.view.Display;
 import android.view.Surface;
 
+import com.truffulatree.noflatrotate.core.LockStateMachine;
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.PowerProfile;
+import com.truffulatree.noflatrotate.core.TraceRecorder;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ServiceController;
 import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
 import org.robolectric.shadows.ShadowSensor;
 import org.robolectric.shadows.ShadowSensorManager;
+import org.robolectric.shadows.ShadowSettings;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.robolectric.Shadows.shadowOf;
 
@@ -75,9 +102,103 @@ public class RotationServiceTest {
     }
 
     @Test
-    public void onBind_returnsNull() {
+    public void onBind_returnsStateBinder() {
         Intent intent = new Intent();
-        assertNull("onBind should return null for unbound service", service.onBind(intent));
+        assertTrue("onBind should return the local state binder",
+                service.onBind(intent) instanceof RotationService.LocalBinder);
+    }
+
+    @Test
+    public void onStartCommand_registersAccelerometerListener() {
+        SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        ShadowSensorManager shadowSensorManager = shadowOf(sensorManager);
+        shadowSensorManager.addSensor(ShadowSensor.newInstance(Sensor.TYPE_ACCELEROMETER));
+
+        RotationService startedService = Robolectric.buildService(RotationService.class)
+                .create()
+                .startCommand(0, 1)
+                .get();
+        idle(startedService);
+
+        assertTrue("Service should listen to the accelerometer once started",
+                shadowSensorManager.hasListener(startedService));
+    }
+
+    @Test
+    @Config(shadows = {ShadowTriggerSensorManager.class})
+    public void motionGate_isOffByDefaultEvenWithMotionSensor() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        addMotionSensor();
+        startServiceWithAccelerometer();
+
+        sendFlatSamples(1, 30);
+
+        assertTrue("Accelerometer should stay registered while the gate is off",
+                shadowOf(sensorManager).hasListener(startedService));
+        assertEquals("No motion trigger should have been requested", 0, shadowTriggers().triggerRequests);
+    }
+
+    @Test
+    @Config(shadows = {ShadowTriggerSensorManager.class})
+    public void motionGate_pausesAccelerometerAfterQuietPeriod() {
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_MOTION_GATE_SECONDS, 1).commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        addMotionSensor();
+        startServiceWithAccelerometer();
+
+        sendFlatSamples(1, 5);
+        assertTrue("Accelerometer should stay registered before the quiet period is over",
+                shadowOf(sensorManager).hasListener(startedService));
+
+        sendFlatSamples(6, 30);
+        assertFalse("Accelerometer should be unregistered once flat and locked for the gate delay",
+                shadowOf(sensorManager).hasListener(startedService));
+        assertNotNull("Motion trigger should be armed", shadowTriggers().triggerListener);
+        assertEquals("Rotation should stay locked while the accelerometer is off", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    @Config(shadows = {ShadowTriggerSensorManager.class})
+    public void motionGate_resumesOnMotionAndRearms() {
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_MOTION_GATE_SECONDS, 1).commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        addMotionSensor();
+        startServiceWithAccelerometer();
+        sendFlatSamples(1, 30);
+        assertFalse("Accelerometer should be paused by the gate",
+                shadowOf(sensorManager).hasListener(startedService));
+
+        shadowTriggers().trigger();
+        idle(startedService);
+        assertTrue("Accelerometer should be registered again on motion",
+                shadowOf(sensorManager).hasListener(startedService));
+
+        // Still flat, so the stillness timer starts over and the gate closes again after it
+        sendFlatSamples(31, 35);
+        assertTrue("Accelerometer should stay registered until a new quiet period has passed",
+                shadowOf(sensorManager).hasListener(startedService));
+        sendFlatSamples(36, 60);
+        assertFalse("Gate should close again after a new quiet period",
+                shadowOf(sensorManager).hasListener(startedService));
+        assertEquals("Motion trigger should have been armed a second time", 2, shadowTriggers().triggerRequests);
+        assertNotNull("Motion trigger should be armed again", shadowTriggers().triggerListener);
+    }
+
+    @Test
+    public void motionGate_withoutMotionSensor_keepsSampling() {
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_MOTION_GATE_SECONDS, 1).commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        // Flat and locked for well over the one second gate
+        sendFlatSamples(1, 30);
+
+        assertTrue("Accelerometer should stay registered when no motion sensor exists",
+                shadowOf(sensorManager).hasListener(startedService));
     }
 
     // ==================== Angle Calculation Tests ====================
@@ -371,18 +492,580 @@ public class RotationServiceTest {
     }
 
     @Test
-    public void configChangedAction_isDefined() {
-        // Verify the config changed action is defined for broadcast
-        assertNotNull("ACTION_CONFIG_CHANGED should be defined", RotationService.ACTION_CONFIG_CHANGED);
-        assertTrue("ACTION_CONFIG_CHANGED should contain package name",
-                RotationService.ACTION_CONFIG_CHANGED.contains("noflatrotate"));
+    public void preferenceChange_isPickedUpByRunningService() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        // Tighten the flat threshold below the 15 degree tilt sent next
+        MainActivity.getPreferences(context)
+                .edit()
+                .putInt(MainActivity.KEY_FLAT_THRESHOLD, 10)
+                .putInt(MainActivity.KEY_VERTICAL_THRESHOLD, 12)
+                .commit();
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+
+        double tilt = Math.toRadians(15.0);
+        sendAccelerometerSample(0f, (float) (GRAVITY * Math.sin(tilt)), (float) (GRAVITY * Math.cos(tilt)), 100_000_000L);
+
+        assertEquals("A 15 degree tilt should not count as flat under a 10 degree threshold", 1,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void preferencesMovedAfterLockedBootStart_areAdoptedAndFollowed() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        // Started at LOCKED_BOOT_COMPLETED, before the older install's settings can be moved
+        startServiceWithAccelerometer();
+        context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(MainActivity.KEY_FLAT_THRESHOLD, 10)
+                .putInt(MainActivity.KEY_VERTICAL_THRESHOLD, 12)
+                .commit();
+
+        // BOOT_COMPLETED moves them over
+        assertTrue("Settings should be moved", MainActivity.migratePreferences(context));
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+
+        sendTilted(15, 100_000_000L);
+        assertEquals("A 15 degree tilt should not count as flat under the moved 10 degree threshold", 1,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+
+        // A later change from the settings screen goes to the new instance
+        MainActivity.getPreferences(context)
+                .edit()
+                .putInt(MainActivity.KEY_FLAT_THRESHOLD, 20)
+                .putInt(MainActivity.KEY_VERTICAL_THRESHOLD, 30)
+                .commit();
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+
+        sendTilted(15, 200_000_000L);
+        assertEquals("The service should follow changes made after the move", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+        assertFalse("Nothing should be left to move", MainActivity.migratePreferences(context));
+    }
+
+    @Test
+    public void migratePreferences_checksCredentialStorageOnlyOnce() {
+        assertFalse("A fresh install has nothing to move", MainActivity.migratePreferences(context));
+        assertTrue("The first check should be remembered",
+                MainActivity.getPreferences(context).getBoolean(MainActivity.KEY_PREFERENCES_MIGRATED, false));
+
+        context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().putInt(MainActivity.KEY_FLAT_THRESHOLD, 10).commit();
+
+        assertFalse("Later calls should not look at credential storage again",
+                MainActivity.migratePreferences(context));
+        assertEquals("Later calls should leave credential storage alone", 10,
+                context.getSharedPreferences(MainActivity.PREFS_NAME, Context.MODE_PRIVATE)
+                        .getInt(MainActivity.KEY_FLAT_THRESHOLD, 0));
+    }
+
+    @Test
+    public void powerProfileChange_reregistersAtNewRateWithoutRestart() {
+        startServiceWithAccelerometer();
+        assertEquals("Service should start at the balanced rate",
+                PowerProfile.samplingPeriodMicros(PowerProfile.BALANCED), startedService.getSamplingPeriodMicros());
+
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_POWER_PROFILE, PowerProfile.RESPONSIVE).commit();
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+
+        assertTrue("Accelerometer should stay registered across the change",
+                shadowOf(sensorManager).hasListener(startedService));
+        assertEquals("Accelerometer should be re-registered at the responsive rate",
+                PowerProfile.samplingPeriodMicros(PowerProfile.RESPONSIVE), startedService.getSamplingPeriodMicros());
+    }
+
+    @Test
+    public void adaptiveSampling_slowsDownUprightAndSpeedsUpNearThresholds() {
+        MainActivity.getPreferences(context)
+                .edit()
+                .putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0)
+                .putBoolean(MainActivity.KEY_ADAPTIVE_SAMPLING, true)
+                .commit();
+        startServiceWithAccelerometer();
+        assertEquals("Service should start at the near rate until it knows better",
+                PowerProfile.nearSamplingPeriodMicros(PowerProfile.BALANCED), startedService.getSamplingPeriodMicros());
+
+        // Held upright for longer than the far dwell
+        long t = 0;
+        for (int i = 0; i < 15; i++) {
+            t += 100_000_000L;
+            sendAccelerometerSample(0f, GRAVITY, 0f, t);
+        }
+        assertEquals("Upright device should be sampled slowly",
+                PowerProfile.farSamplingPeriodMicros(PowerProfile.BALANCED), startedService.getSamplingPeriodMicros());
+
+        // Tilted back into the hysteresis band
+        double tilt = Math.toRadians(25.0);
+        sendAccelerometerSample(0f, (float) (GRAVITY * Math.sin(tilt)), (float) (GRAVITY * Math.cos(tilt)),
+                t + 200_000_000L);
+        assertEquals("Device in the band should be sampled quickly",
+                PowerProfile.nearSamplingPeriodMicros(PowerProfile.BALANCED), startedService.getSamplingPeriodMicros());
+        assertTrue("Accelerometer should still be registered", shadowOf(sensorManager).hasListener(startedService));
+        assertEquals("Both switches should be counted", 2,
+                RotationService.METRICS.get(Metrics.SAMPLING_RATE_SWITCHES));
+    }
+
+    // ==================== Sensor Batching Tests ====================
+
+    @Test
+    public void sensorBatching_isOffByDefaultEvenWithFifo() {
+        startServiceWithAccelerometer(accelerometerWithFifo());
+
+        sendBurst(new float[][] {{0f, GRAVITY, 0f}, {0f, GRAVITY, 0f}, {0f, GRAVITY, 0f}},
+                100_000_000L, 200_000_000L, 300_000_000L);
+
+        assertEquals("Without batching every sample should be acted on", 3,
+                RotationService.METRICS.get(Metrics.SENSOR_DELIVERIES));
+    }
+
+    @Test
+    public void sensorBatching_actsOncePerBurstOnTheNewestSample() {
+        enableBatching();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer(accelerometerWithFifo());
+
+        // Passes through flat but ends upright
+        sendBurst(new float[][] {{0f, 0f, GRAVITY}, {0f, 0f, GRAVITY}, {0f, GRAVITY, 0f}},
+                100_000_000L, 200_000_000L, 300_000_000L);
+        assertEquals("The burst should be acted on once", 1, RotationService.METRICS.get(Metrics.SENSOR_DELIVERIES));
+        assertEquals("Every sample should still be folded in", 3,
+                RotationService.METRICS.get(Metrics.SAMPLES_PROCESSED));
+        assertEquals("Flat samples in the middle of a burst should not lock", 1,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+
+        // Ends flat
+        sendBurst(new float[][] {{0f, GRAVITY, 0f}, {0f, GRAVITY, 0f}, {0f, 0f, GRAVITY}},
+                400_000_000L, 500_000_000L, 600_000_000L);
+        assertEquals("Each burst should be acted on once", 2, RotationService.METRICS.get(Metrics.SENSOR_DELIVERIES));
+        assertEquals("A burst ending flat should lock", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void sensorBatching_dropsSamplesOlderThanAFlushedBurst() {
+        enableBatching();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer(accelerometerWithFifo());
+        sendBurst(new float[][] {{0f, GRAVITY, 0f}, {0f, 0f, GRAVITY}},
+                100_000_000L, 300_000_000L);
+
+        // Delivered late, from before the newest sample already acted on
+        sendBurst(new float[][] {{0f, GRAVITY, 0f}, {0f, GRAVITY, 0f}},
+                150_000_000L, 250_000_000L);
+
+        assertEquals("Both late samples should be dropped", 2, RotationService.METRICS.get(Metrics.SAMPLES_DROPPED));
+        assertEquals("A burst of dropped samples should not be acted on", 1,
+                RotationService.METRICS.get(Metrics.SENSOR_DELIVERIES));
+        assertEquals("Rotation should stay locked", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    // ==================== Rotation Lock Tests ====================
+
+    @Test
+    public void flatSample_locksRotation_whenAutoRotateEnabled() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        sendAccelerometerSample(0f, 0f, GRAVITY, 1_000_000L);
+
+        assertEquals("Flat device should lock rotation", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void boundClient_isToldAboutLockOnItsOwnHandler() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+        RotationService.LocalBinder binder =
+                (RotationService.LocalBinder) startedService.onBind(new Intent(context, RotationService.class));
+        List<RotationState> states = new ArrayList<>();
+        RotationService.StateListener listener = states::add;
+        binder.addStateListener(listener, new Handler(Looper.getMainLooper()));
+
+        sendAccelerometerSample(0f, 0f, GRAVITY, 1_000_000L);
+        assertTrue("Nothing should be delivered on the sensor thread", states.isEmpty());
+        assertTrue("A query should see the lock at once", binder.getState().isLocked());
+
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals("The lock should be one transition", 1, states.size());
+        assertTrue("Listener should see flat mode", states.get(0).isFlatMode());
+        assertTrue("Listener should see the lock", states.get(0).isLocked());
+
+        // Still flat; nothing new to tell
+        sendAccelerometerSample(0f, 0f, GRAVITY, 2_000_000L);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals("An unchanged state should not be delivered", 1, states.size());
+
+        binder.removeStateListener(listener);
+        sendAccelerometerSample(0f, GRAVITY, 0f, 3_000_000_000L);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertEquals("A removed listener should not be called", 1, states.size());
+    }
+
+    @Test
+    public void reboundClient_stillSeesTheAngleRefreshed() {
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0).commit();
+        startServiceWithAccelerometer();
+        // The same binder every client is handed
+        RotationService.LocalBinder binder =
+                (RotationService.LocalBinder) startedService.onBind(new Intent(context, RotationService.class));
+        // The activity going to the background and coming back
+        serviceController.bind().unbind().rebind();
+
+        // Upright throughout, so only the angle changes and there is no transition to publish
+        sendTilted(80, 1_000_000_000L);
+        sendTilted(50, 1_500_000_000L);
+
+        assertEquals("Published angle should follow the device after a rebind", 50.0,
+                binder.getState().angleFromVertical(), 0.5);
+    }
+
+    @Test
+    public void externalAutoRotateChange_isPickedUpByObserver() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 0);
+        startServiceWithAccelerometer();
+
+        // User turns auto-rotate back on from Quick Settings while the service is running
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        context.getContentResolver().notifyChange(
+                Settings.System.getUriFor(Settings.System.ACCELEROMETER_ROTATION), null);
+        idle(startedService);
+
+        sendAccelerometerSample(0f, 0f, GRAVITY, 1_000_000L);
+
+        assertEquals("Service should see the external change and lock rotation", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void staleSample_isIgnored() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        sendAccelerometerSample(0f, GRAVITY, 0f, 2_000_000L);
+        // Older than the sample already processed, so it must not lock
+        sendAccelerometerSample(0f, 0f, GRAVITY, 1_000_000L);
+
+        assertEquals("Out-of-order sample should not lock rotation", 1,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void tapWhileFlat_isSuppressedByGravityFilter() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        sendAccelerometerSample(0f, 0f, GRAVITY, 100_000_000L);
+        // A single jolt that looks upright in the raw signal
+        sendAccelerometerSample(0f, GRAVITY, 0f, 200_000_000L);
+        sendAccelerometerSample(0f, 0f, GRAVITY, 300_000_000L);
+
+        assertEquals("Rotation should stay locked through a transient jolt", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+        assertEquals("Both raw transitions of the jolt should be counted as suppressed",
+                2, startedService.getSuppressedTransitionCount());
+        assertEquals("The suppressed transitions should reach the diagnostics", 2,
+                RotationService.METRICS.get(Metrics.FLAT_TRANSITIONS_SUPPRESSED));
+    }
+
+    @Test
+    public void briefLift_isDebouncedByDwellTime() {
+        MainActivity.getPreferences(context)
+                .edit()
+                .putInt(MainActivity.KEY_DWELL_MS, 500)
+                .putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0)
+                .commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        for (int i = 1; i <= 6; i++) {
+            sendAccelerometerSample(0f, 0f, GRAVITY, i * 100_000_000L);
+        }
+        assertEquals("Device flat for 500ms should lock", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+
+        // Lifted upright for 300ms, then put back down
+        for (int i = 7; i <= 9; i++) {
+            sendAccelerometerSample(0f, GRAVITY, 0f, i * 100_000_000L);
+        }
+        sendAccelerometerSample(0f, 0f, GRAVITY, 1_000_000_000L);
+
+        assertEquals("A lift shorter than the dwell time should not unlock", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void lock_usesDisplayRotationReportedByListener() {
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        // The user turns the device to landscape while holding it upright
+        Display display = ((DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE))
+                .getDisplay(Display.DEFAULT_DISPLAY);
+        shadowOf(display).setRotation(Surface.ROTATION_90);
+        idle(startedService);
+        sendAccelerometerSample(GRAVITY, 0f, 0f, 100_000_000L);
+
+        // ...then lays it down
+        sendAccelerometerSample(0f, 0f, GRAVITY, 200_000_000L);
+
+        assertEquals("Rotation should be locked to the landscape orientation", Surface.ROTATION_90,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.USER_ROTATION, -1));
+    }
+
+    @Test
+    public void prediction_locksOnTheWayDownToRotationFromBeforeDescent() {
+        MainActivity.getPreferences(context)
+                .edit()
+                .putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0)
+                .putInt(MainActivity.KEY_PREDICTION_MS, 200)
+                .commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+        Display display = ((DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE))
+                .getDisplay(Display.DEFAULT_DISPLAY);
+        shadowOf(display).setRotation(Surface.ROTATION_90);
+        idle(startedService);
+
+        // Held in landscape, then laid down at 60°/s; the system turns the display back to
+        // portrait on the way down
+        long t = 0;
+        for (int degrees : new int[] {80, 50, 44, 38, 32}) {
+            if (degrees == 44) {
+                shadowOf(display).setRotation(Surface.ROTATION_0);
+                idle(startedService);
+            }
+            double radians = Math.toRadians(degrees);
+            t += 100_000_000L;
+            sendAccelerometerSample((float) (GRAVITY * Math.sin(radians)), 0f, (float) (GRAVITY * Math.cos(radians)), t);
+        }
+
+        assertEquals("Rotation should be locked while the device is still at 32°", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+        assertEquals("Rotation should be locked to the orientation from before the descent", Surface.ROTATION_90,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.USER_ROTATION, -1));
+    }
+
+    @Test
+    public void screenOff_pausesAccelerometer_andScreenOnResumesIt() {
+        startServiceWithAccelerometer();
+
+        context.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+        assertFalse("Accelerometer should be off with the screen",
+                shadowOf(sensorManager).hasListener(startedService));
+
+        context.sendBroadcast(new Intent(Intent.ACTION_SCREEN_ON));
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+        assertTrue("Accelerometer should resume with the screen",
+                shadowOf(sensorManager).hasListener(startedService));
+    }
+
+    @Test
+    public void screenOn_firstSampleDecidesWithoutDwell() {
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_DWELL_MS, 2000).commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+
+        context.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        context.sendBroadcast(new Intent(Intent.ACTION_SCREEN_ON));
+        shadowOf(Looper.getMainLooper()).idle();
+        idle(startedService);
+        sendAccelerometerSample(0f, 0f, GRAVITY, 100_000_000L);
+
+        assertEquals("Device found flat on screen-on should lock at once", 0,
+                Settings.System.getInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1));
+    }
+
+    @Test
+    public void metrics_countSamplesAndFlatTransitions() {
+        // Unfiltered, so the zero-magnitude sample reaches the detector as-is
+        MainActivity.getPreferences(context)
+                .edit().putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0).commit();
+        startServiceWithAccelerometer();
+        SystemClock.sleep(1000);
+
+        sendAccelerometerSample(0f, 0f, GRAVITY, 100_000_000L);
+        sendAccelerometerSample(0f, 0f, GRAVITY, 100_000_000L);
+        sendAccelerometerSample(0f, 0f, 0f, 200_000_000L);
+
+        Metrics metrics = RotationService.METRICS;
+        assertEquals("One sample should have been processed", 1, metrics.get(Metrics.SAMPLES_PROCESSED));
+        assertEquals("The stale and zero-magnitude samples should be dropped", 2, metrics.get(Metrics.SAMPLES_DROPPED));
+        assertEquals("Lying flat should count as one flat entry", 1, metrics.get(Metrics.FLAT_ENTRIES));
+        assertTrue("Sensor time should be tracked while registered",
+                metrics.sensorOnNanos(SystemClock.elapsedRealtimeNanos()) >= 1_000_000_000L);
+    }
+
+    @Test
+    public void dumpTrace_writesRecordedSamples() throws IOException {
+        MainActivity.getPreferences(context)
+                .edit()
+                .putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0)
+                .putBoolean(MainActivity.KEY_TRACE_ENABLED, true)
+                .commit();
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        startServiceWithAccelerometer();
+        sendAccelerometerSample(0f, GRAVITY, 0f, 100_000_000L);
+        sendAccelerometerSample(0f, 0f, GRAVITY, 200_000_000L);
+
+        startedService.onStartCommand(
+                new Intent(context, RotationService.class).setAction(RotationService.ACTION_DUMP_TRACE), 0, 2);
+        idle(startedService);
+
+        File file = RotationService.getTraceFile(context);
+        ByteBuffer trace = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("Trace should start with the magic number", TraceRecorder.MAGIC, trace.getInt(0));
+        assertEquals("Both samples should be in the trace", 2, trace.getInt(2 * Integer.BYTES));
+        int lastDecision = TraceRecorder.HEADER_BYTES + 2 * TraceRecorder.RECORD_BYTES - 2;
+        assertEquals("Going flat should be recorded as a lock", LockStateMachine.ACTION_LOCK, trace.get(lastDecision));
+    }
+
+    @Test
+    public void bootStart_measuresTimeToFirstRegistration() {
+        ShadowSettings.ShadowSystem.setCanWrite(true);
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        shadowOf(sensorManager).addSensor(ShadowSensor.newInstance(Sensor.TYPE_ACCELEROMETER));
+        Intent bootIntent = new Intent(context, RotationService.class)
+                .putExtra(RotationService.EXTRA_BOOT_BROADCAST_ELAPSED_MS, SystemClock.elapsedRealtime());
+        RotationService service = Robolectric.buildService(RotationService.class, bootIntent)
+                .create()
+                .startCommand(0, 1)
+                .get();
+        idle(service);
+
+        assertTrue("Boot start should record the time to the first registration",
+                service.getBootToSensorMillis() >= 0);
+    }
+
+    @Test
+    public void normalStart_doesNotRecordBootTiming() {
+        RotationService service = startServiceWithAccelerometer();
+        assertEquals("A start that isn't from boot should not be timed", -1L, service.getBootToSensorMillis());
     }
 
     // ==================== Helper Methods ====================
 
+    private SensorManager sensorManager;
+    private RotationService startedService;
+    private ServiceController<RotationService> serviceController;
+
+    private RotationService startServiceWithAccelerometer() {
+        return startServiceWithAccelerometer(ShadowSensor.newInstance(Sensor.TYPE_ACCELEROMETER));
+    }
+
+    private RotationService startServiceWithAccelerometer(Sensor accelerometer) {
+        ShadowSettings.ShadowSystem.setCanWrite(true);
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        shadowOf(sensorManager).addSensor(accelerometer);
+        serviceController = Robolectric.buildService(RotationService.class)
+                .create()
+                .startCommand(0, 1);
+        startedService = serviceController.get();
+        // Listener registration happens on the service's sensor thread
+        idle(startedService);
+        return startedService;
+    }
+
+    /**
+     * Runs everything queued on the sensor thread, then the settings writes it handed on.
+     */
+    private static void idle(RotationService service) {
+        shadowOf(service.getSensorLooper()).idle();
+        shadowOf(service.getSettingsLooper()).idle();
+    }
+
+    /**
+     * An accelerometer with a hardware FIFO, so the service will batch when asked to.
+     * Robolectric's sensors have none.
+     */
+    private static Sensor accelerometerWithFifo() {
+        Sensor sensor = ShadowSensor.newInstance(Sensor.TYPE_ACCELEROMETER);
+        ReflectionHelpers.setField(sensor, "mFifoMaxEventCount", 300);
+        return sensor;
+    }
+
+    /**
+     * Batching on, with no smoothing so each burst's newest sample alone decides the state.
+     */
+    private void enableBatching() {
+        MainActivity.getPreferences(context)
+                .edit()
+                .putBoolean(MainActivity.KEY_SENSOR_BATCHING, true)
+                .putInt(MainActivity.KEY_FILTER_TIME_CONSTANT_MS, 0)
+                .commit();
+    }
+
+    /**
+     * Delivers {@code samples} back-to-back, as a flushed FIFO does, before the sensor thread
+     * gets to run.
+     */
+    private void sendBurst(float[][] samples, long... timestampsNanos) {
+        for (int i = 0; i < samples.length; i++) {
+            SensorEvent event = ShadowSensorManager.createSensorEvent(3, Sensor.TYPE_ACCELEROMETER);
+            event.values[0] = samples[i][0];
+            event.values[1] = samples[i][1];
+            event.values[2] = samples[i][2];
+            event.timestamp = timestampsNanos[i];
+            shadowOf(sensorManager).sendSensorEventToListeners(event);
+        }
+        idle(startedService);
+    }
+
+    /**
+     * A significant motion sensor, for the service to find when it is created.
+     */
+    private void addMotionSensor() {
+        SensorManager manager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        shadowOf(manager).addSensor(ShadowSensor.newInstance(Sensor.TYPE_SIGNIFICANT_MOTION));
+    }
+
+    private ShadowTriggerSensorManager shadowTriggers() {
+        return Shadow.extract(sensorManager);
+    }
+
+    /**
+     * Lying flat for samples {@code first} to {@code last}, 100 ms apart.
+     */
+    private void sendFlatSamples(int first, int last) {
+        for (int i = first; i <= last; i++) {
+            sendAccelerometerSample(0f, 0f, GRAVITY, i * 100_000_000L);
+        }
+    }
+
+    /**
+     * A device tilted {@code degrees} away from lying flat, top edge up.
+     */
+    private void sendTilted(double degrees, long timestampNanos) {
+        double radians = Math.toRadians(degrees);
+        sendAccelerometerSample(0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)),
+                timestampNanos);
+    }
+
+    private void sendAccelerometerSample(float x, float y, float z, long timestampNanos) {
+        SensorEvent event = ShadowSensorManager.createSensorEvent(3, Sensor.TYPE_ACCELEROMETER);
+        event.values[0] = x;
+        event.values[1] = y;
+        event.values[2] = z;
+        event.timestamp = timestampNanos;
+        shadowOf(sensorManager).sendSensorEventToListeners(event);
+        idle(startedService);
+    }
+
     /**
      * Calculate angle from vertical (flat position) based on accelerometer values.
-     * Mirrors the calculation in RotationService.onSensorChanged().
+     * Reference acos-based calculation that FlatDetector reproduces without trig.
      */
     private double calculateAngleFromVertical(float x, float y, float z) {
         double magnitude = Math.sqrt(x * x + y * y + z * z);
@@ -396,7 +1079,7 @@ public class RotationServiceTest {
 
     /**
      * Determine if device should be considered flat based on angle and current state.
-     * Mirrors the hysteresis logic in RotationService.onSensorChanged().
+     * Reference hysteresis logic that FlatDetector reproduces.
      * Uses default thresholds.
      */
     private boolean calculateShouldBeFlat(double angleFromVertical, boolean currentlyInFlatMode) {
@@ -406,7 +1089,7 @@ public class RotationServiceTest {
 
     /**
      * Determine if device should be considered flat based on angle, current state, and configurable thresholds.
-     * Mirrors the hysteresis logic in RotationService.onSensorChanged().
+     * Reference hysteresis logic that FlatDetector reproduces.
      */
     private boolean calculateShouldBeFlat(double angleFromVertical, boolean currentlyInFlatMode,
                                           float flatThreshold, float verticalThreshold) {
@@ -418,4 +1101,39 @@ public class RotationServiceTest {
                    (Math.abs(angleFromVertical - 180.0) < verticalThreshold);
         }
     }
+
+    /**
+     * Lets a one-shot trigger sensor be armed and fired, which ShadowSensorManager can't do.
+     */
+    @Implements(SensorManager.class)
+    public static class ShadowTriggerSensorManager extends ShadowSensorManager {
+
+        TriggerEventListener triggerListener;
+        int triggerRequests;
+
+        @Implementation
+        protected boolean requestTriggerSensor(TriggerEventListener listener, Sensor sensor) {
+            triggerListener = listener;
+            triggerRequests++;
+            return true;
+        }
+
+        @Implementation
+        protected boolean cancelTriggerSensor(TriggerEventListener listener, Sensor sensor) {
+            if (listener == triggerListener) {
+                triggerListener = null;
+            }
+            return true;
+        }
+
+        /**
+         * Fires the armed trigger and disarms it, as the hardware does. The event itself is
+         * never looked at.
+         */
+        void trigger() {
+            TriggerEventListener listener = triggerListener;
+            triggerListener = null;
+            listener.onTrigger(null);
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package com.truffulatree.noflatrotate;
+
+import android.content.Context;
+import android.os.Build;
+import android.provider.Settings;
+import android.view.Surface;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowSettings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = {Build.VERSION_CODES.P})
+public class RotationSettingsWriterTest {
+
+    private Context context;
+    private RotationSettingsWriter writer;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        ShadowSettings.ShadowSystem.setCanWrite(true);
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        Settings.System.putInt(context.getContentResolver(), Settings.System.USER_ROTATION, Surface.ROTATION_0);
+        writer = new RotationSettingsWriter(context);
+        writer.refresh();
+    }
+
+    @Test
+    public void lockRotation_writesBothSettings() {
+        assertTrue("Lock should succeed", writer.lockRotation(Surface.ROTATION_90));
+
+        assertEquals("Auto-rotate should be off", 0, getSetting(Settings.System.ACCELEROMETER_ROTATION));
+        assertEquals("Rotation should be held at 90", Surface.ROTATION_90, getSetting(Settings.System.USER_ROTATION));
+        assertEquals("Two writes should be issued", 2, writer.getWritesIssued());
+        assertFalse("Cached state should follow the write", writer.isAutoRotateEnabled());
+    }
+
+    @Test
+    public void lockRotation_skipsUnchangedUserRotation() {
+        writer.lockRotation(Surface.ROTATION_0);
+
+        assertEquals("Only auto-rotate should be written", 1, writer.getWritesIssued());
+        assertEquals("USER_ROTATION write should be skipped", 1, writer.getWritesSkipped());
+    }
+
+    @Test
+    public void setAutoRotateEnabled_skipsNoOpWrite() {
+        assertTrue("Enabling already-enabled auto-rotate should succeed", writer.setAutoRotateEnabled(true));
+
+        assertEquals("No write should be issued", 0, writer.getWritesIssued());
+        assertEquals("Write should be counted as skipped", 1, writer.getWritesSkipped());
+    }
+
+    @Test
+    public void refresh_picksUpExternalChange() {
+        writer.lockRotation(Surface.ROTATION_0);
+        // The user turns auto-rotate back on from Quick Settings
+        Settings.System.putInt(context.getContentResolver(), Settings.System.ACCELEROMETER_ROTATION, 1);
+        writer.refresh();
+
+        assertTrue("Writer should see the external change", writer.isAutoRotateEnabled());
+        writer.lockRotation(Surface.ROTATION_0);
+        assertEquals("Lock should be written again", 0, getSetting(Settings.System.ACCELEROMETER_ROTATION));
+    }
+
+    @Test
+    public void withoutPermission_nothingIsWritten() {
+        ShadowSettings.ShadowSystem.setCanWrite(false);
+        writer.invalidatePermission();
+
+        assertFalse("Lock should fail without permission", writer.lockRotation(Surface.ROTATION_90));
+        assertEquals("Auto-rotate should be untouched", 1, getSetting(Settings.System.ACCELEROMETER_ROTATION));
+        assertEquals("No write should be issued", 0, writer.getWritesIssued());
+    }
+
+    @Test
+    public void permissionResult_isCachedUntilInvalidated() {
+        ShadowSettings.ShadowSystem.setCanWrite(false);
+        writer.invalidatePermission();
+        writer.lockRotation(Surface.ROTATION_90);
+
+        // Granted later; the cached denial holds until invalidated
+        ShadowSettings.ShadowSystem.setCanWrite(true);
+        assertFalse("Cached denial should still apply", writer.lockRotation(Surface.ROTATION_90));
+
+        writer.invalidatePermission();
+        assertTrue("Fresh check should see the grant", writer.lockRotation(Surface.ROTATION_90));
+    }
+
+    private int getSetting(String name) {
+        return Settings.System.getInt(context.getContentResolver(), name, -1);
+    }
+}
@@ -0,0 +1,63 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.FlatDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the per-sample angle and hysteresis computation, against the acos-based
+ * calculation it replaced.
+ */
+@State(Scope.Thread)
+public class FlatDetectorBenchmark {
+
+    private static final int SAMPLE_COUNT = 4096; // power of two, see next()
+
+    @Param({SampleStreams.FLAT, SampleStreams.UPRIGHT, SampleStreams.PICK_UP_PUT_DOWN})
+    public String scenario;
+
+    private float[] samples;
+    private int index;
+    private FlatDetector detector;
+    private boolean referenceFlat;
+
+    @Setup
+    public void setUp() {
+        samples = SampleStreams.forScenario(scenario, SAMPLE_COUNT, 42L);
+        detector = new FlatDetector(SampleStreams.FLAT_THRESHOLD, SampleStreams.VERTICAL_THRESHOLD);
+    }
+
+    private int next() {
+        int offset = index * 3;
+        index = (index + 1) & (SAMPLE_COUNT - 1);
+        return offset;
+    }
+
+    @Benchmark
+    public boolean flatDetector() {
+        int offset = next();
+        detector.update(samples[offset], samples[offset + 1], samples[offset + 2]);
+        return detector.isFlat();
+    }
+
+    @Benchmark
+    public boolean acosReference() {
+        int offset = next();
+        float x = samples[offset];
+        float y = samples[offset + 1];
+        float z = samples[offset + 2];
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        if (magnitude < 0.1) {
+            return referenceFlat;
+        }
+        double normalizedZ = Math.max(0.0, Math.min(1.0, Math.abs(z) / magnitude));
+        double angleFromVertical = Math.acos(normalizedZ) * 180.0 / Math.PI;
+        float threshold = referenceFlat ? SampleStreams.VERTICAL_THRESHOLD : SampleStreams.FLAT_THRESHOLD;
+        referenceFlat = (Math.abs(angleFromVertical) < threshold) || (Math.abs(angleFromVertical - 180.0) < threshold);
+        return referenceFlat;
+    }
+}
@@ -0,0 +1,50 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.FlatDetector;
+import com.truffulatree.noflatrotate.core.LockStateMachine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the lock/unlock decision for a realistic sequence of flat verdicts.
+ */
+@State(Scope.Thread)
+public class LockStateMachineBenchmark {
+
+    private static final int SAMPLE_COUNT = 4096; // power of two
+
+    private boolean[] verdicts;
+    private int index;
+    private LockStateMachine machine;
+    private boolean rotationEnabled;
+
+    @Setup
+    public void setUp() {
+        float[] samples = SampleStreams.pickUpPutDown(SAMPLE_COUNT, 42L);
+        FlatDetector detector = new FlatDetector(SampleStreams.FLAT_THRESHOLD, SampleStreams.VERTICAL_THRESHOLD);
+        verdicts = new boolean[SAMPLE_COUNT];
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            detector.update(samples[i * 3], samples[i * 3 + 1], samples[i * 3 + 2]);
+            verdicts[i] = detector.isFlat();
+        }
+        machine = new LockStateMachine();
+        rotationEnabled = true;
+    }
+
+    @Benchmark
+    public int decide() {
+        boolean isFlat = verdicts[index];
+        index = (index + 1) & (SAMPLE_COUNT - 1);
+        int action = machine.decide(isFlat, rotationEnabled);
+        // Stand in for the settings write the service would make
+        if (action == LockStateMachine.ACTION_LOCK) {
+            rotationEnabled = false;
+        } else if (action == LockStateMachine.ACTION_UNLOCK) {
+            rotationEnabled = true;
+        }
+        return action;
+    }
+}
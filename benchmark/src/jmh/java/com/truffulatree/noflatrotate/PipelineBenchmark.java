@@ -0,0 +1,113 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.DetectionConfig;
+import com.truffulatree.noflatrotate.core.DetectionPipeline;
+import com.truffulatree.noflatrotate.core.LockStateMachine;
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.RotationController;
+import com.truffulatree.noflatrotate.core.RotationSettings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A full simulated event stream through detection and decision, reported per sample:
+ * once through DetectionPipeline and the state machine on their own, and once through
+ * RotationController, which is exactly what the service runs for each sensor event.
+ */
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    private static final int STREAM_LENGTH = 36_000; // one hour at 10Hz
+    private static final long SAMPLE_NANOS = 100_000_000L;
+
+    @Param({SampleStreams.FLAT, SampleStreams.PICK_UP_PUT_DOWN})
+    public String scenario;
+
+    private float[] samples;
+    private DetectionConfig config;
+
+    @Setup
+    public void setUp() {
+        samples = SampleStreams.forScenario(scenario, STREAM_LENGTH, 42L);
+        config = new DetectionConfig.Builder()
+                .thresholds(SampleStreams.FLAT_THRESHOLD, SampleStreams.VERTICAL_THRESHOLD)
+                .filterTimeConstantMillis(SampleStreams.FILTER_TIME_CONSTANT_MS)
+                .build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public int stream() {
+        // The same pipeline the controller runs, with its filter, hysteresis, dwell time,
+        // prediction and sampling zone, but without the rotation vote, metrics or trace
+        DetectionPipeline pipeline = new DetectionPipeline(config);
+        LockStateMachine machine = new LockStateMachine();
+        boolean rotationEnabled = true;
+        int settingsWrites = 0;
+        float[] s = samples;
+        long timestampNanos = 0;
+        for (int offset = 0; offset < s.length; offset += 3) {
+            timestampNanos += SAMPLE_NANOS;
+            if (pipeline.update(timestampNanos, s[offset], s[offset + 1], s[offset + 2])
+                    != DetectionPipeline.SAMPLE_ACCEPTED) {
+                continue;
+            }
+            int action = machine.decide(pipeline.isFlatMode(), rotationEnabled);
+            if (action == LockStateMachine.ACTION_LOCK) {
+                rotationEnabled = false;
+                settingsWrites += 2;
+            } else if (action == LockStateMachine.ACTION_UNLOCK) {
+                rotationEnabled = true;
+                settingsWrites++;
+            }
+        }
+        return settingsWrites;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_LENGTH)
+    public long controller() {
+        CountingSettings settings = new CountingSettings();
+        RotationController controller = new RotationController(config, settings, () -> 0, new Metrics(), null);
+        float[] s = samples;
+        long timestampNanos = 0;
+        for (int offset = 0; offset < s.length; offset += 3) {
+            timestampNanos += SAMPLE_NANOS;
+            controller.onAccelerometerSample(timestampNanos, s[offset], s[offset + 1], s[offset + 2]);
+            controller.act();
+        }
+        return settings.writes;
+    }
+
+    /**
+     * Settings held in fields, standing in for the cached values RotationSettingsWriter keeps.
+     */
+    private static final class CountingSettings implements RotationSettings {
+        boolean autoRotate = true;
+        long writes = 0;
+
+        @Override
+        public boolean isAutoRotateEnabled() {
+            return autoRotate;
+        }
+
+        @Override
+        public boolean lockRotation(int rotation) {
+            autoRotate = false;
+            writes += 2;
+            return true;
+        }
+
+        @Override
+        public boolean setAutoRotateEnabled(boolean enabled) {
+            autoRotate = enabled;
+            writes++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.truffulatree.noflatrotate;
+
+import java.util.Random;
+
+/**
+ * Synthetic accelerometer streams for the benchmarks, as interleaved x, y, z floats
+ * sampled at the service's 10Hz rate.
+ */
+final class SampleStreams {
+
+    static final float GRAVITY = 9.81f;
+    // Matching MainActivity's defaults, which the benchmarks can't see from the app module
+    static final float FLAT_THRESHOLD = 20f;
+    static final float VERTICAL_THRESHOLD = 30f;
+    static final int FILTER_TIME_CONSTANT_MS = 200;
+
+    static final String FLAT = "flat";
+    static final String UPRIGHT = "upright";
+    static final String PICK_UP_PUT_DOWN = "pickUpPutDown";
+
+    private SampleStreams() {}
+
+    static float[] forScenario(String scenario, int count, long seed) {
+        switch (scenario) {
+            case FLAT:
+                return constant(5.0, count, seed);
+            case UPRIGHT:
+                return constant(75.0, count, seed);
+            case PICK_UP_PUT_DOWN:
+                return pickUpPutDown(count, seed);
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+    }
+
+    /** A device held at a fixed tilt with sensor noise. */
+    static float[] constant(double degrees, int count, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            put(samples, i, degrees, random);
+        }
+        return samples;
+    }
+
+    /**
+     * A device repeatedly lying flat for 5s, being picked up over 1s, held upright for 5s
+     * and put back down over 1s.
+     */
+    static float[] pickUpPutDown(int count, long seed) {
+        Random random = new Random(seed);
+        float[] samples = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            int phase = i % 120;
+            double degrees;
+            if (phase < 50) {
+                degrees = 3.0;
+            } else if (phase < 60) {
+                degrees = 3.0 + (phase - 50) * 7.0;
+            } else if (phase < 110) {
+                degrees = 73.0;
+            } else {
+                degrees = 73.0 - (phase - 110) * 7.0;
+            }
+            put(samples, i, degrees, random);
+        }
+        return samples;
+    }
+
+    private static void put(float[] samples, int index, double degrees, Random random) {
+        double radians = Math.toRadians(degrees);
+        int offset = index * 3;
+        samples[offset] = (float) (random.nextGaussian() * 0.05);
+        samples[offset + 1] = (float) (GRAVITY * Math.sin(radians) + random.nextGaussian() * 0.05);
+        samples[offset + 2] = (float) (GRAVITY * Math.cos(radians) + random.nextGaussian() * 0.05);
+    }
+}
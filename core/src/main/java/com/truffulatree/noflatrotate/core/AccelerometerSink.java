@@ -0,0 +1,15 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Receives accelerometer samples: acceleration in m/s² along the device axes, timestamped in
+ * nanoseconds on the sensor clock. On Android the source is a SensorEventListener; the
+ * replay tool reads them from recorded traces.
+ */
+public interface AccelerometerSink {
+
+    /**
+     * @return {@link DetectionPipeline#SAMPLE_STALE}, {@link DetectionPipeline#SAMPLE_REJECTED}
+     *         or {@link DetectionPipeline#SAMPLE_ACCEPTED}
+     */
+    int onAccelerometerSample(long timestampNanos, float x, float y, float z);
+}
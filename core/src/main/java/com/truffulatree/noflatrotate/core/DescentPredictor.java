@@ -0,0 +1,109 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Watches how fast the device is tilting towards flat and predicts whether it will cross
+ * the flat threshold within a short horizon, so a device being laid down can be locked
+ * before the system's own rotation trigger fires on the way down.
+ *
+ * Like {@link FlatDetector} it works on flatness, z² / |g|², which is cos² of the angle
+ * from flat: 1 when flat and falling towards 0 as the device stands up. The threshold is
+ * the squared cosine {@link DetectionConfig#flatCosSquared()} already holds, the rate is the change in flatness per second
+ * between consecutive samples, and the prediction is a straight-line extrapolation of it.
+ * One division per sample and no trig. No allocation per sample.
+ */
+public final class DescentPredictor {
+
+    // Flatness per second a put-down has to beat. Around the usual thresholds this is
+    // roughly 20°/s, well above the drift of a hand-held device and below any deliberate
+    // lowering of it.
+    private static final float MIN_DESCENT_RATE_PER_SECOND = 0.3f;
+    // Consecutive descending samples needed before a crossing is predicted, so a single
+    // jolt can't lock the device
+    private static final int MIN_DESCENDING_SAMPLES = 2;
+
+    private float flatCosSquared;
+    private long horizonNanos;
+
+    private boolean primed = false;
+    private long lastTimestampNanos;
+    private float lastFlatness;
+    private float ratePerSecond;
+    private int descendingSamples;
+
+    public DescentPredictor(float flatCosSquared, int horizonMillis) {
+        setThreshold(flatCosSquared, horizonMillis);
+    }
+
+    /**
+     * @param flatCosSquared cos² of the flat threshold, as {@link DetectionConfig#flatCosSquared()}
+     * @param horizonMillis  how far ahead a crossing is predicted; 0 turns prediction off
+     */
+    public void setThreshold(float flatCosSquared, int horizonMillis) {
+        this.flatCosSquared = flatCosSquared;
+        horizonNanos = Math.max(0, horizonMillis) * 1_000_000L;
+    }
+
+    public boolean isEnabled() {
+        return horizonNanos > 0;
+    }
+
+    public long horizonNanos() {
+        return horizonNanos;
+    }
+
+    /**
+     * Feeds one sample, normally the gravity estimate rather than the raw accelerometer.
+     * Samples too small to judge should not be passed in.
+     */
+    public void update(long timestampNanos, float x, float y, float z) {
+        if (horizonNanos == 0) {
+            return;
+        }
+        float flatness = z * z / (x * x + y * y + z * z);
+        long elapsedNanos = timestampNanos - lastTimestampNanos;
+        lastTimestampNanos = timestampNanos;
+        if (!primed || elapsedNanos <= 0) {
+            primed = true;
+            lastFlatness = flatness;
+            ratePerSecond = 0f;
+            descendingSamples = 0;
+            return;
+        }
+        ratePerSecond = (flatness - lastFlatness) * 1e9f / elapsedNanos;
+        lastFlatness = flatness;
+        descendingSamples = ratePerSecond > MIN_DESCENT_RATE_PER_SECOND ? descendingSamples + 1 : 0;
+    }
+
+    /**
+     * Whether the last sample moved towards flat fast enough to be the start of a put-down.
+     * Always false while prediction is off.
+     */
+    public boolean isDescending() {
+        return descendingSamples > 0;
+    }
+
+    /**
+     * Whether the device is not yet past the flat threshold but, at its current rate of
+     * descent, will be within the horizon.
+     */
+    public boolean willCrossWithinHorizon() {
+        return descendingSamples >= MIN_DESCENDING_SAMPLES && lastFlatness <= flatCosSquared
+                && lastFlatness + ratePerSecond * (horizonNanos / 1e9f) > flatCosSquared;
+    }
+
+    /**
+     * Whether flatness is still rising at all, as opposed to levelling off or reversing.
+     */
+    public boolean isApproaching() {
+        return ratePerSecond > 0f;
+    }
+
+    /**
+     * Forgets the history, e.g. after the sensor has been off for a while.
+     */
+    public void reset() {
+        primed = false;
+        descendingSamples = 0;
+        ratePerSecond = 0f;
+    }
+}
@@ -0,0 +1,214 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Immutable snapshot of the detection settings. A new snapshot is built whenever a
+ * preference changes and handed to the sensor thread as a single reference, so the
+ * detection path never sees a half-applied mix of old and new values.
+ */
+public final class DetectionConfig {
+
+    private final float flatThresholdDegrees;
+    private final float verticalThresholdDegrees;
+    // Computed once here rather than by every FlatDetector the config is applied to
+    private final float flatCosSquared;
+    private final float verticalCosSquared;
+    private final int dwellMillis;
+    private final int filterTimeConstantMillis;
+    private final boolean batchingEnabled;
+    private final long motionGateDelayNanos;
+    private final boolean traceEnabled;
+    private final int powerProfile;
+    private final int predictionMillis;
+    private final boolean adaptiveSampling;
+
+    private DetectionConfig(Builder builder) {
+        this.flatThresholdDegrees = builder.flatThresholdDegrees;
+        this.verticalThresholdDegrees = builder.verticalThresholdDegrees;
+        this.flatCosSquared = FlatDetector.cosSquared(builder.flatThresholdDegrees);
+        this.verticalCosSquared = FlatDetector.cosSquared(builder.verticalThresholdDegrees);
+        this.dwellMillis = builder.dwellMillis;
+        this.filterTimeConstantMillis = builder.filterTimeConstantMillis;
+        this.batchingEnabled = builder.batchingEnabled;
+        this.motionGateDelayNanos = Math.max(0, builder.motionGateSeconds) * 1_000_000_000L;
+        this.traceEnabled = builder.traceEnabled;
+        this.powerProfile = PowerProfile.sanitize(builder.powerProfile);
+        this.predictionMillis = Math.max(0, builder.predictionMillis);
+        this.adaptiveSampling = builder.adaptiveSampling;
+    }
+
+    /**
+     * Builds configs one named setting at a time. Anything not set keeps its default: 20° and
+     * 30° thresholds, the {@link PowerProfile#BALANCED} profile, and every optional feature
+     * (dwell time, smoothing, batching, motion gating, tracing, prediction, adaptive sampling)
+     * off.
+     */
+    public static final class Builder {
+
+        private float flatThresholdDegrees = 20f;
+        private float verticalThresholdDegrees = 30f;
+        private int dwellMillis = 0;
+        private int filterTimeConstantMillis = 0;
+        private boolean batchingEnabled = false;
+        private int motionGateSeconds = 0;
+        private boolean traceEnabled = false;
+        private int powerProfile = PowerProfile.BALANCED;
+        private int predictionMillis = 0;
+        private boolean adaptiveSampling = false;
+
+        /** Sets both hysteresis thresholds, in degrees from lying flat. */
+        public Builder thresholds(float flatThresholdDegrees, float verticalThresholdDegrees) {
+            this.flatThresholdDegrees = flatThresholdDegrees;
+            this.verticalThresholdDegrees = verticalThresholdDegrees;
+            return this;
+        }
+
+        public Builder dwellMillis(int dwellMillis) {
+            this.dwellMillis = dwellMillis;
+            return this;
+        }
+
+        /** 0 turns the gravity filter off. */
+        public Builder filterTimeConstantMillis(int filterTimeConstantMillis) {
+            this.filterTimeConstantMillis = filterTimeConstantMillis;
+            return this;
+        }
+
+        public Builder batchingEnabled(boolean batchingEnabled) {
+            this.batchingEnabled = batchingEnabled;
+            return this;
+        }
+
+        /** How long the device must be flat and locked before the accelerometer is paused; 0 for never. */
+        public Builder motionGateSeconds(int motionGateSeconds) {
+            this.motionGateSeconds = motionGateSeconds;
+            return this;
+        }
+
+        public Builder traceEnabled(boolean traceEnabled) {
+            this.traceEnabled = traceEnabled;
+            return this;
+        }
+
+        /** One of the {@link PowerProfile} constants; anything else is {@link PowerProfile#BALANCED}. */
+        public Builder powerProfile(int powerProfile) {
+            this.powerProfile = powerProfile;
+            return this;
+        }
+
+        /** How far ahead a put-down is predicted and locked early; 0 for never. */
+        public Builder predictionMillis(int predictionMillis) {
+            this.predictionMillis = predictionMillis;
+            return this;
+        }
+
+        /** Whether to sample faster near the thresholds and slower away from them, see {@link SamplingZone}. */
+        public Builder adaptiveSampling(boolean adaptiveSampling) {
+            this.adaptiveSampling = adaptiveSampling;
+            return this;
+        }
+
+        public DetectionConfig build() {
+            return new DetectionConfig(this);
+        }
+    }
+
+    public float flatThresholdDegrees() {
+        return flatThresholdDegrees;
+    }
+
+    public float verticalThresholdDegrees() {
+        return verticalThresholdDegrees;
+    }
+
+    /** cos² of the flat threshold, the limit {@link FlatDetector} compares samples against. */
+    public float flatCosSquared() {
+        return flatCosSquared;
+    }
+
+    /** cos² of the vertical threshold, the limit {@link FlatDetector} compares samples against. */
+    public float verticalCosSquared() {
+        return verticalCosSquared;
+    }
+
+    public int dwellMillis() {
+        return dwellMillis;
+    }
+
+    public int filterTimeConstantMillis() {
+        return filterTimeConstantMillis;
+    }
+
+    public boolean batchingEnabled() {
+        return batchingEnabled;
+    }
+
+    /** 0 means the accelerometer is never paused. */
+    public long motionGateDelayNanos() {
+        return motionGateDelayNanos;
+    }
+
+    /** Whether samples and decisions go into the trace recorder. */
+    public boolean traceEnabled() {
+        return traceEnabled;
+    }
+
+    public int powerProfile() {
+        return powerProfile;
+    }
+
+    public int predictionMillis() {
+        return predictionMillis;
+    }
+
+    public boolean adaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    public int samplingPeriodMicros() {
+        return PowerProfile.samplingPeriodMicros(powerProfile);
+    }
+
+    /**
+     * The sampling period to register at, given whether the device is near the thresholds.
+     * Only differs from {@link #samplingPeriodMicros()} with adaptive sampling on.
+     */
+    public int samplingPeriodMicros(boolean nearThreshold) {
+        if (!adaptiveSampling) {
+            return samplingPeriodMicros();
+        }
+        return nearThreshold ? PowerProfile.nearSamplingPeriodMicros(powerProfile)
+                : PowerProfile.farSamplingPeriodMicros(powerProfile);
+    }
+
+    /**
+     * Whether samples should be batched, given whether the device is near the thresholds.
+     * With adaptive sampling a device near them is never batched, since that is where a late
+     * decision shows.
+     */
+    public boolean batchingEnabled(boolean nearThreshold) {
+        return batchingEnabled && !(adaptiveSampling && nearThreshold);
+    }
+
+    /** How long samples may wait in the sensor FIFO, when batching is enabled. */
+    public int maxReportLatencyMicros() {
+        return PowerProfile.maxReportLatencyMicros(powerProfile);
+    }
+
+    /**
+     * True if moving from {@code previous} to this config changes how the accelerometer
+     * has to be registered.
+     */
+    public boolean needsReregistration(DetectionConfig previous) {
+        return previous.batchingEnabled != batchingEnabled || previous.powerProfile != powerProfile
+                || previous.adaptiveSampling != adaptiveSampling;
+    }
+
+    @Override
+    public String toString() {
+        return "flat=" + flatThresholdDegrees + ", vertical=" + verticalThresholdDegrees
+                + ", dwellMs=" + dwellMillis + ", filterMs=" + filterTimeConstantMillis
+                + ", batching=" + batchingEnabled + ", motionGateNanos=" + motionGateDelayNanos
+                + ", trace=" + traceEnabled + ", powerProfile=" + powerProfile
+                + ", predictionMs=" + predictionMillis + ", adaptiveSampling=" + adaptiveSampling;
+    }
+}
@@ -0,0 +1,224 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Everything between a raw accelerometer sample and the debounced flat/not-flat state:
+ * ordering by timestamp, the gravity filter, the flat hysteresis, the dwell time and, when
+ * enabled, the prediction of a put-down that is about to cross the flat threshold.
+ * RotationController runs every sample through it, whether it comes from the sensor or
+ * from a recorded trace, so both are judged with exactly the same code.
+ *
+ * Pure state with no Android dependencies and no allocation per sample.
+ */
+public final class DetectionPipeline {
+
+    /** The sample was no newer than the last one and was ignored. */
+    public static final int SAMPLE_STALE = 0;
+    /** The sample was too small to judge; the state is unchanged. */
+    public static final int SAMPLE_REJECTED = 1;
+    /** The sample was judged; {@link #isFlatMode()} reflects it. */
+    public static final int SAMPLE_ACCEPTED = 2;
+
+    private final GravityFilter gravityFilter;
+    private final FlatDetector flatDetector;
+    // Sees the unfiltered samples, only to count how many transitions the filter suppressed
+    private final FlatDetector rawFlatDetector;
+    // The detector's verdict must hold for the dwell time before the device enters or leaves
+    // flat mode, so briefly lifting it doesn't rewrite the rotation settings twice.
+    private final DwellDebouncer flatDebouncer;
+    // Enters flat mode ahead of the detector while the device is being laid down
+    private final DescentPredictor descentPredictor;
+    // Whether the device is close enough to the thresholds to be worth sampling quickly
+    private final SamplingZone samplingZone;
+
+    private long lastTimestampNanos = 0;
+    private long rawTransitionCount = 0;
+    // Raw transitions since the raw verdict last left the filtered one, while it is away
+    private int rawTransitionsAhead = 0;
+    private long suppressedTransitionCount = 0;
+    private boolean flatMode = false;
+    // Flat mode entered on a prediction, before the debounced verdict has caught up
+    private boolean predictedFlat = false;
+    private long predictedAtNanos = 0;
+    private long predictedEntryCount = 0;
+    private boolean resyncOnNextSample = false;
+
+    public DetectionPipeline(DetectionConfig config) {
+        gravityFilter = new GravityFilter(config.filterTimeConstantMillis());
+        flatDetector = new FlatDetector(config);
+        rawFlatDetector = new FlatDetector(config);
+        flatDebouncer = new DwellDebouncer(config.dwellMillis());
+        descentPredictor = new DescentPredictor(config.flatCosSquared(), config.predictionMillis());
+        samplingZone = new SamplingZone(config.flatThresholdDegrees(), config.verticalThresholdDegrees());
+    }
+
+    public void applyConfig(DetectionConfig config) {
+        flatDetector.setThresholds(config);
+        rawFlatDetector.setThresholds(config);
+        flatDebouncer.setDwellMillis(config.dwellMillis());
+        gravityFilter.setTimeConstantMillis(config.filterTimeConstantMillis());
+        descentPredictor.setThreshold(config.flatCosSquared(), config.predictionMillis());
+        samplingZone.setThresholds(config.flatThresholdDegrees(), config.verticalThresholdDegrees());
+        if (!descentPredictor.isEnabled()) {
+            predictedFlat = false;
+        }
+    }
+
+    /**
+     * @return {@link #SAMPLE_STALE}, {@link #SAMPLE_REJECTED} or {@link #SAMPLE_ACCEPTED}
+     */
+    public int update(long timestampNanos, float x, float y, float z) {
+        // Order by sensor timestamp, not arrival: a sample no newer than the last one
+        // processed has already been superseded and must not drive the state machine.
+        if (timestampNanos <= lastTimestampNanos) {
+            return SAMPLE_STALE;
+        }
+        lastTimestampNanos = timestampNanos;
+
+        boolean wasRawFlat = rawFlatDetector.isFlat();
+        boolean rawFlipped = rawFlatDetector.update(x, y, z) && rawFlatDetector.isFlat() != wasRawFlat;
+        if (rawFlipped) {
+            rawTransitionCount++;
+        }
+
+        // Hysteresis for flat detection using the configurable thresholds, on the gravity estimate
+        gravityFilter.update(timestampNanos, x, y, z);
+        boolean wasFlat = flatDetector.isFlat();
+        boolean judged = flatDetector.update(gravityFilter.x(), gravityFilter.y(), gravityFilter.z());
+        countSuppressed(wasRawFlat == wasFlat, rawFlipped, flatDetector.isFlat() != wasFlat);
+        if (!judged) {
+            return SAMPLE_REJECTED;
+        }
+
+        // Update the flat mode state once the verdict has held long enough
+        if (resyncOnNextSample) {
+            resyncOnNextSample = false;
+            flatDebouncer.reset(flatDetector.isFlat());
+        }
+        boolean debouncedFlat = flatDebouncer.update(timestampNanos, flatDetector.isFlat());
+        descentPredictor.update(timestampNanos, gravityFilter.x(), gravityFilter.y(), gravityFilter.z());
+        updatePrediction(timestampNanos, debouncedFlat);
+        samplingZone.update(timestampNanos, gravityFilter.x(), gravityFilter.y(), gravityFilter.z(),
+                descentPredictor.isDescending());
+        flatMode = debouncedFlat || predictedFlat;
+        return SAMPLE_ACCEPTED;
+    }
+
+    /**
+     * A raw transition is suppressed when the raw verdict goes back before the filtered one
+     * has followed it. One that the filtered verdict does follow, however late, is not.
+     */
+    private void countSuppressed(boolean agreedBefore, boolean rawFlipped, boolean filteredFlipped) {
+        if (rawFlipped && (agreedBefore || rawTransitionsAhead > 0)) {
+            rawTransitionsAhead++;
+        }
+        if (rawTransitionsAhead > 0 && rawFlatDetector.isFlat() == flatDetector.isFlat()) {
+            // Back together: either the filter followed the last raw transition, or the raw
+            // verdict came back to where the filter stayed
+            suppressedTransitionCount += filteredFlipped ? rawTransitionsAhead - 1 : rawTransitionsAhead;
+            rawTransitionsAhead = 0;
+        }
+    }
+
+    private void updatePrediction(long timestampNanos, boolean debouncedFlat) {
+        if (debouncedFlat) {
+            // The real verdict has caught up and takes over
+            predictedFlat = false;
+        } else if (predictedFlat) {
+            // Hold the early lock while the device is still on its way down, for up to one
+            // more horizon in case the filter lags. A device that stops short or is lifted
+            // again drops it, and so is unlocked.
+            predictedFlat = flatDetector.isFlat() || (descentPredictor.isApproaching()
+                    && timestampNanos - predictedAtNanos <= 2 * descentPredictor.horizonNanos());
+        } else if (!flatMode && descentPredictor.willCrossWithinHorizon()) {
+            predictedFlat = true;
+            predictedAtNanos = timestampNanos;
+            predictedEntryCount++;
+        }
+    }
+
+    /**
+     * Forgets the gravity estimate, for when the device may have moved since the last sample.
+     */
+    public void resetFilter() {
+        gravityFilter.reset();
+        descentPredictor.reset();
+        samplingZone.reset();
+    }
+
+    /**
+     * Like {@link #resetFilter()}, and also adopts the next sample's verdict without waiting
+     * for the dwell time, so the state is right straight away after a gap in sensing.
+     */
+    public void resync() {
+        gravityFilter.reset();
+        descentPredictor.reset();
+        samplingZone.reset();
+        predictedFlat = false;
+        resyncOnNextSample = true;
+    }
+
+    /** The debounced state the lock decision is based on. */
+    public boolean isFlatMode() {
+        return flatMode;
+    }
+
+    /** Whether flat mode is currently held on a prediction alone. */
+    public boolean isPredictedFlat() {
+        return predictedFlat;
+    }
+
+    /**
+     * Whether the last sample moved towards flat fast enough to be the start of a put-down.
+     * Always false while prediction is off.
+     */
+    public boolean isDescending() {
+        return descentPredictor.isDescending();
+    }
+
+    /** See {@link SamplingZone#isNear()}. */
+    public boolean isNearThreshold() {
+        return samplingZone.isNear();
+    }
+
+    /** Times flat mode was entered on a prediction, ahead of the debounced verdict. */
+    public long predictedEntryCount() {
+        return predictedEntryCount;
+    }
+
+    /** The detector's verdict on the last sample, before the dwell time. */
+    public boolean isDetectorFlat() {
+        return flatDetector.isFlat();
+    }
+
+    /** The verdict on the last sample with no filtering or dwell time at all. */
+    public boolean isRawFlat() {
+        return rawFlatDetector.isFlat();
+    }
+
+    public long lastTimestampNanos() {
+        return lastTimestampNanos;
+    }
+
+    /** See {@link FlatDetector#lastFlatness()}. */
+    public float lastFlatness() {
+        return flatDetector.lastFlatness();
+    }
+
+    /** See {@link FlatDetector#lastAngleFromVertical()}; not for the per-sample path. */
+    public double lastAngleFromVertical() {
+        return flatDetector.lastAngleFromVertical();
+    }
+
+    public long rawTransitionCount() {
+        return rawTransitionCount;
+    }
+
+    /**
+     * Flat/not-flat transitions the raw accelerometer signal would have caused that the
+     * gravity filter kept from reaching the lock logic: raw transitions that were undone
+     * before the filtered verdict followed them. Filter lag alone suppresses nothing.
+     */
+    public long suppressedTransitionCount() {
+        return suppressedTransitionCount;
+    }
+}
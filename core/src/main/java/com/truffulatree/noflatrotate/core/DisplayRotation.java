@@ -0,0 +1,11 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * The rotation the display is showing right now, as a Surface rotation value, 0 to 3.
+ * Asked on every sample the device isn't flat, so it should return a cached value rather
+ * than query the system.
+ */
+public interface DisplayRotation {
+
+    int currentRotation();
+}
@@ -0,0 +1,56 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Time-based hysteresis on a boolean signal: a new value is only accepted once it has been
+ * seen continuously for the dwell time, measured on sample timestamps. Any sample that
+ * agrees with the current value cancels a pending change.
+ */
+public final class DwellDebouncer {
+
+    private long dwellNanos;
+    private boolean state = false;
+    private boolean changePending = false;
+    private long pendingSinceNanos;
+
+    public DwellDebouncer(int dwellMillis) {
+        setDwellMillis(dwellMillis);
+    }
+
+    /**
+     * Sets the minimum time a new value must hold before it is accepted. 0 accepts it at once.
+     */
+    public void setDwellMillis(int dwellMillis) {
+        dwellNanos = Math.max(0, dwellMillis) * 1_000_000L;
+    }
+
+    /**
+     * @return the debounced value after taking this sample into account
+     */
+    public boolean update(long timestampNanos, boolean value) {
+        if (value == state) {
+            changePending = false;
+            return state;
+        }
+        if (!changePending) {
+            changePending = true;
+            pendingSinceNanos = timestampNanos;
+        }
+        if (timestampNanos - pendingSinceNanos >= dwellNanos) {
+            state = value;
+            changePending = false;
+        }
+        return state;
+    }
+
+    /**
+     * Jumps straight to the given value, dropping any pending change.
+     */
+    public void reset(boolean value) {
+        state = value;
+        changePending = false;
+    }
+
+    public boolean get() {
+        return state;
+    }
+}
@@ -0,0 +1,130 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Decides whether the device is lying flat from raw accelerometer samples, with
+ * hysteresis between the flat and vertical thresholds.
+ *
+ * The angle from flat is acos(|z| / |g|), so "angle < threshold" is the same test as
+ * z² > cos²(threshold) · |g|². Both squared cosines are precomputed, once per
+ * {@link DetectionConfig}, which leaves two multiply-compares per sample: no sqrt, no
+ * division, no acos.
+ */
+public final class FlatDetector {
+
+    /** Samples with a smaller magnitude than this carry no usable direction. */
+    public static final float MIN_MAGNITUDE = 0.1f;
+    private static final float MIN_MAGNITUDE_SQUARED = MIN_MAGNITUDE * MIN_MAGNITUDE;
+
+    private float flatCosSquared;
+    private float verticalCosSquared;
+    private boolean flatAlwaysWins;
+    private boolean verticalAlwaysWins;
+
+    private boolean flat = false;
+    private float lastZSquared;
+    private float lastMagnitudeSquared;
+
+    public FlatDetector(DetectionConfig config) {
+        setThresholds(config);
+    }
+
+    public FlatDetector(float flatThresholdDegrees, float verticalThresholdDegrees) {
+        setThresholds(flatThresholdDegrees, verticalThresholdDegrees);
+    }
+
+    /**
+     * Adopts the config's thresholds and the squared cosines it has already computed for them.
+     * Call whenever the config changes.
+     */
+    public void setThresholds(DetectionConfig config) {
+        setLimits(config.flatThresholdDegrees(), config.verticalThresholdDegrees(),
+                config.flatCosSquared(), config.verticalCosSquared());
+    }
+
+    /**
+     * Recomputes the squared-cosine limits, for callers without a {@link DetectionConfig}.
+     */
+    public void setThresholds(float flatThresholdDegrees, float verticalThresholdDegrees) {
+        setLimits(flatThresholdDegrees, verticalThresholdDegrees,
+                cosSquared(flatThresholdDegrees), cosSquared(verticalThresholdDegrees));
+    }
+
+    private void setLimits(float flatThresholdDegrees, float verticalThresholdDegrees,
+                           float flatCosSquared, float verticalCosSquared) {
+        this.flatCosSquared = flatCosSquared;
+        this.verticalCosSquared = verticalCosSquared;
+        // The angle from flat never exceeds 90°, so a threshold past that accepts every sample
+        flatAlwaysWins = flatThresholdDegrees > 90f;
+        verticalAlwaysWins = verticalThresholdDegrees > 90f;
+    }
+
+    /**
+     * The one degrees-to-squared-cosine conversion in the package, shared with
+     * {@link DetectionConfig} and {@link SamplingZone}. Angles past 90° count as 90°.
+     */
+    static float cosSquared(float degrees) {
+        double cos = Math.cos(Math.toRadians(Math.min(degrees, 90f)));
+        return (float) (cos * cos);
+    }
+
+    /**
+     * Feeds one accelerometer sample through the hysteresis.
+     *
+     * @return false if the sample was too small to judge and the state was left unchanged
+     */
+    public boolean update(float x, float y, float z) {
+        float magnitudeSquared = x * x + y * y + z * z;
+        if (magnitudeSquared < MIN_MAGNITUDE_SQUARED) {
+            return false;
+        }
+        float zSquared = z * z;
+        lastZSquared = zSquared;
+        lastMagnitudeSquared = magnitudeSquared;
+
+        if (!flat) {
+            // Not currently in flat mode - transition to flat at the flat threshold
+            flat = flatAlwaysWins || zSquared > flatCosSquared * magnitudeSquared;
+        } else {
+            // Currently in flat mode - only exit flat mode at the vertical threshold
+            flat = verticalAlwaysWins || zSquared > verticalCosSquared * magnitudeSquared;
+        }
+        return true;
+    }
+
+    public boolean isFlat() {
+        return flat;
+    }
+
+    public void reset() {
+        flat = false;
+    }
+
+    /**
+     * How flat the last accepted sample was, as z² / |g|²: the squared cosine of its angle
+     * from flat, 1 lying flat and 0 upright or before the first sample. One division, cheap
+     * enough for every sample.
+     */
+    public float lastFlatness() {
+        return lastMagnitudeSquared == 0f ? 0f : lastZSquared / lastMagnitudeSquared;
+    }
+
+    /**
+     * Angle of the last accepted sample from flat, in degrees. This does the trig the
+     * detector avoids, so keep it off the per-sample path: it is for logging and
+     * diagnostics, and the trace records {@link #lastFlatness()} instead.
+     */
+    public double lastAngleFromVertical() {
+        if (lastMagnitudeSquared == 0f) {
+            return 90.0;
+        }
+        return angleFromFlatness(lastFlatness());
+    }
+
+    /**
+     * Converts a {@link #lastFlatness()} value back to degrees from flat.
+     */
+    public static double angleFromFlatness(float flatness) {
+        double normalizedZ = Math.sqrt(Math.max(0f, flatness));
+        return Math.toDegrees(Math.acos(Math.min(1.0, normalizedZ)));
+    }
+}
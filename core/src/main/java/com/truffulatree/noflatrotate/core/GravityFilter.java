@@ -0,0 +1,66 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Single-pole low-pass filter that separates gravity from transient acceleration such as
+ * taps on the table or the jolt of each step, so they don't reach the flat detection.
+ *
+ * The smoothing factor is derived from the time between samples rather than assumed from
+ * the requested rate, so the response stays the same when samples arrive late or in batches.
+ * No allocation per sample.
+ */
+public final class GravityFilter {
+
+    private long timeConstantNanos;
+    private boolean primed = false;
+    private long lastTimestampNanos;
+    private float x;
+    private float y;
+    private float z;
+
+    public GravityFilter(int timeConstantMillis) {
+        setTimeConstantMillis(timeConstantMillis);
+    }
+
+    /**
+     * Sets how quickly the output follows the input. 0 passes samples through unfiltered.
+     */
+    public void setTimeConstantMillis(int timeConstantMillis) {
+        timeConstantNanos = Math.max(0, timeConstantMillis) * 1_000_000L;
+    }
+
+    public void update(long timestampNanos, float rawX, float rawY, float rawZ) {
+        long elapsedNanos = timestampNanos - lastTimestampNanos;
+        lastTimestampNanos = timestampNanos;
+        if (!primed || timeConstantNanos == 0 || elapsedNanos <= 0) {
+            // Start from the first sample rather than from zero so there's no warm-up lag
+            primed = true;
+            x = rawX;
+            y = rawY;
+            z = rawZ;
+            return;
+        }
+        float alpha = (float) elapsedNanos / (float) (timeConstantNanos + elapsedNanos);
+        x += alpha * (rawX - x);
+        y += alpha * (rawY - y);
+        z += alpha * (rawZ - z);
+    }
+
+    /**
+     * Forgets the filter history, e.g. after the sensor has been off for a while.
+     */
+    public void reset() {
+        primed = false;
+    }
+
+    public float x() {
+        return x;
+    }
+
+    public float y() {
+        return y;
+    }
+
+    public float z() {
+        return z;
+    }
+}
@@ -0,0 +1,41 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Turns each flat/not-flat verdict into a lock or unlock action, remembering whether the
+ * current lock is ours so that a lock the user set themselves is never undone.
+ * Pure state with no Android dependencies.
+ */
+public final class LockStateMachine {
+
+    public static final int ACTION_NONE = 0;
+    /** Lock rotation to the last stable orientation. */
+    public static final int ACTION_LOCK = 1;
+    /** Re-enable auto-rotation that we disabled. */
+    public static final int ACTION_UNLOCK = 2;
+    /** Auto-rotation was re-enabled externally while we held the lock; just forget the lock. */
+    public static final int ACTION_RESET = 3;
+
+    private boolean rotationPreviouslyLocked = false;
+
+    public int decide(boolean isFlat, boolean rotationEnabled) {
+        if (isFlat) {
+            if (rotationEnabled) {
+                rotationPreviouslyLocked = true;
+                return ACTION_LOCK;
+            }
+            return ACTION_NONE;
+        }
+        if (!rotationPreviouslyLocked) {
+            return ACTION_NONE;
+        }
+        rotationPreviouslyLocked = false;
+        return rotationEnabled ? ACTION_RESET : ACTION_UNLOCK;
+    }
+
+    /**
+     * Whether auto-rotation is currently disabled because of us.
+     */
+    public boolean isHoldingLock() {
+        return rotationPreviouslyLocked;
+    }
+}
@@ -0,0 +1,143 @@
+package com.truffulatree.noflatrotate.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters describing what the service has been doing, for the diagnostics panel.
+ *
+ * Every counter is a slot in one AtomicLongArray, so the sensor thread updates them without
+ * locking or allocating and the UI can read them from any thread at any time. Counters are
+ * addressed by the int constants below.
+ */
+public final class Metrics {
+
+    public static final int SAMPLES_PROCESSED = 0;
+    public static final int SAMPLES_DROPPED = 1;
+    public static final int FLAT_ENTRIES = 2;
+    public static final int FLAT_EXITS = 3;
+    public static final int SETTINGS_WRITES_ISSUED = 4;
+    public static final int SETTINGS_WRITES_SKIPPED = 5;
+    public static final int ROTATION_ERRORS = 6;
+    // Binder calls to system services, which the IPC budget tests hold to a per-event limit
+    public static final int SETTINGS_READS = 7;
+    public static final int PERMISSION_CHECKS = 8;
+    public static final int DISPLAY_QUERIES = 9;
+    // Times the sensor handed samples to the service: one per sample, or one per batch
+    public static final int SENSOR_DELIVERIES = 10;
+    // Re-registrations to move between the near and far sampling rates
+    public static final int SAMPLING_RATE_SWITCHES = 11;
+    // Lock or unlock targets replaced by a newer one before the settings writer got to them
+    public static final int SETTINGS_TARGETS_SUPERSEDED = 12;
+    // Flat/not-flat transitions in the raw signal that the gravity filter kept from the lock logic
+    public static final int FLAT_TRANSITIONS_SUPPRESSED = 13;
+    // Completed sensor-on intervals only; sensorOnNanos() adds the one in progress
+    private static final int SENSOR_ON_NANOS = 14;
+    // Start of the interval in progress, or 0 while the sensor is off
+    private static final int SENSOR_ON_SINCE_NANOS = 15;
+    // When counting started, or 0 if markStarted() hasn't been called
+    private static final int STARTED_AT_NANOS = 16;
+    // Count, total and maximum of each latency, in that order
+    private static final int LATENCY_BASE = 17;
+    private static final int SLOTS_PER_LATENCY = 3;
+
+    /** From the sample that decided a lock or unlock to the decision reaching the settings writer. */
+    public static final int LATENCY_DETECTION = 0;
+    /** From a lock or unlock reaching the settings writer to the settings being written. */
+    public static final int LATENCY_ACTUATION = 1;
+    private static final int LATENCY_COUNT = 2;
+
+    private static final int SLOT_COUNT = LATENCY_BASE + LATENCY_COUNT * SLOTS_PER_LATENCY;
+
+    private final AtomicLongArray values = new AtomicLongArray(SLOT_COUNT);
+
+    public void increment(int counter) {
+        values.incrementAndGet(counter);
+    }
+
+    public void add(int counter, long delta) {
+        values.addAndGet(counter, delta);
+    }
+
+    public long get(int counter) {
+        return values.get(counter);
+    }
+
+    /**
+     * Marks the sensor as switched on at {@code nowNanos}. Ignored if it is already on.
+     */
+    public void sensorStarted(long nowNanos) {
+        values.compareAndSet(SENSOR_ON_SINCE_NANOS, 0, Math.max(1, nowNanos));
+    }
+
+    /**
+     * Marks the sensor as switched off at {@code nowNanos}. Ignored if it is already off.
+     */
+    public void sensorStopped(long nowNanos) {
+        long since = values.getAndSet(SENSOR_ON_SINCE_NANOS, 0);
+        if (since != 0) {
+            values.addAndGet(SENSOR_ON_NANOS, Math.max(0, nowNanos - since));
+        }
+    }
+
+    /**
+     * Total time the sensor has been on, including the current interval if it is on now.
+     */
+    public long sensorOnNanos(long nowNanos) {
+        long total = values.get(SENSOR_ON_NANOS);
+        long since = values.get(SENSOR_ON_SINCE_NANOS);
+        return since != 0 ? total + Math.max(0, nowNanos - since) : total;
+    }
+
+    /**
+     * Records {@code nowNanos} as the time counting started, for {@link #sinceStartNanos}.
+     */
+    public void markStarted(long nowNanos) {
+        values.set(STARTED_AT_NANOS, Math.max(1, nowNanos));
+    }
+
+    /**
+     * Time since {@link #markStarted}, or 0 if it hasn't been called.
+     */
+    public long sinceStartNanos(long nowNanos) {
+        long startedAt = values.get(STARTED_AT_NANOS);
+        return startedAt != 0 ? Math.max(0, nowNanos - startedAt) : 0;
+    }
+
+    /**
+     * Adds one measurement of {@code latency}, {@link #LATENCY_DETECTION} or
+     * {@link #LATENCY_ACTUATION}. Negative values, from clocks that disagree, count as 0.
+     */
+    public void recordLatency(int latency, long nanos) {
+        int base = LATENCY_BASE + latency * SLOTS_PER_LATENCY;
+        long value = Math.max(0, nanos);
+        values.incrementAndGet(base);
+        values.addAndGet(base + 1, value);
+        long max;
+        do {
+            max = values.get(base + 2);
+        } while (value > max && !values.compareAndSet(base + 2, max, value));
+    }
+
+    public long latencyCount(int latency) {
+        return values.get(LATENCY_BASE + latency * SLOTS_PER_LATENCY);
+    }
+
+    /**
+     * Mean of the recorded measurements, or 0 if there are none.
+     */
+    public long meanLatencyNanos(int latency) {
+        int base = LATENCY_BASE + latency * SLOTS_PER_LATENCY;
+        long count = values.get(base);
+        return count == 0 ? 0 : values.get(base + 1) / count;
+    }
+
+    public long maxLatencyNanos(int latency) {
+        return values.get(LATENCY_BASE + latency * SLOTS_PER_LATENCY + 2);
+    }
+
+    public void reset() {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            values.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * The trade-off between how quickly a flat device is locked and how often the sensor wakes
+ * the application processor. Each profile fixes the accelerometer sampling period, the
+ * report latency used when batching is on, and a motion smoothing preset to suit that rate.
+ * Profiles are addressed by the int constants below, which are also what gets stored.
+ */
+public final class PowerProfile {
+
+    /** 5 Hz, delivered every two seconds when batching. */
+    public static final int LOW_POWER = 0;
+    /** 10 Hz, delivered every second when batching. */
+    public static final int BALANCED = 1;
+    /** 25 Hz, fast enough to lock before the system rotates the screen. */
+    public static final int RESPONSIVE = 2;
+    public static final int COUNT = 3;
+
+    private static final int[] SAMPLING_PERIOD_MICROS = {200_000, 100_000, 40_000};
+    private static final int[] MAX_REPORT_LATENCY_MICROS = {2_000_000, 1_000_000, 200_000};
+    // Roughly two sampling periods, so a single noisy sample can't flip the verdict
+    private static final int[] FILTER_TIME_CONSTANT_MILLIS = {400, 200, 80};
+
+    private static final double MICROS_PER_HOUR = 3_600_000_000.0;
+
+    private PowerProfile() {}
+
+    /**
+     * Maps a stored value to a known profile; anything unrecognized is {@link #BALANCED}.
+     */
+    public static int sanitize(int profile) {
+        return profile >= 0 && profile < COUNT ? profile : BALANCED;
+    }
+
+    public static int samplingPeriodMicros(int profile) {
+        return SAMPLING_PERIOD_MICROS[sanitize(profile)];
+    }
+
+    /**
+     * With adaptive sampling, the period used while the device is near the flat/vertical band:
+     * twice the profile's rate, where decision latency matters.
+     */
+    public static int nearSamplingPeriodMicros(int profile) {
+        return samplingPeriodMicros(profile) / 2;
+    }
+
+    /**
+     * With adaptive sampling, the period used while the device is far from the band: half the
+     * profile's rate, since nothing is about to change.
+     */
+    public static int farSamplingPeriodMicros(int profile) {
+        return samplingPeriodMicros(profile) * 2;
+    }
+
+    /** How long the sensor hub may hold samples in its FIFO when batching is on. */
+    public static int maxReportLatencyMicros(int profile) {
+        return MAX_REPORT_LATENCY_MICROS[sanitize(profile)];
+    }
+
+    /** The motion smoothing the settings screen switches to when the profile is chosen. */
+    public static int filterTimeConstantMillis(int profile) {
+        return FILTER_TIME_CONSTANT_MILLIS[sanitize(profile)];
+    }
+
+    /**
+     * Sensor deliveries per hour under {@code profile}, given the share of time the
+     * accelerometer is actually on (the screen being off and motion gating both stop it).
+     * Each delivery is one wakeup of the application processor: one per sample, or one per
+     * batch when batching.
+     *
+     * @param sensorOnFraction between 0 and 1, e.g. from {@link Metrics#sensorOnNanos}
+     */
+    public static long estimateWakeupsPerHour(int profile, boolean batching, double sensorOnFraction) {
+        double fraction = Math.max(0.0, Math.min(1.0, sensorOnFraction));
+        return Math.round(fraction * MICROS_PER_HOUR / deliveryIntervalMicros(profile, batching));
+    }
+
+    /**
+     * Projects the deliveries measured under {@code measuredProfile} onto {@code profile}:
+     * the measured rate per hour the sensor was on, scaled by how much more or less often
+     * {@code profile} delivers, and by the share of time the sensor is on. Unlike
+     * {@link #estimateWakeupsPerHour}, this carries over whatever the measurement saw that the
+     * nominal rates don't, such as adaptive sampling or a sensor delivering off its requested
+     * rate.
+     *
+     * @param batching whether batching is actually in use, which needs the preference and a
+     *                 sensor with a FIFO
+     */
+    public static long projectWakeupsPerHour(double measuredPerSensorOnHour, int measuredProfile, int profile,
+                                             boolean batching, double sensorOnFraction) {
+        double fraction = Math.max(0.0, Math.min(1.0, sensorOnFraction));
+        double ratio = (double) deliveryIntervalMicros(measuredProfile, batching)
+                / deliveryIntervalMicros(profile, batching);
+        return Math.round(Math.max(0.0, measuredPerSensorOnHour) * ratio * fraction);
+    }
+
+    private static int deliveryIntervalMicros(int profile, boolean batching) {
+        return batching
+                ? Math.max(samplingPeriodMicros(profile), maxReportLatencyMicros(profile))
+                : samplingPeriodMicros(profile);
+    }
+}
@@ -0,0 +1,228 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * The whole flat-lock behavior with the platform kept behind interfaces: accelerometer
+ * samples go in, lock and unlock decisions come out as writes to {@link RotationSettings}.
+ * RotationService adapts Android's sensor, settings and display APIs to it; tests and the
+ * replay tool drive it with plain Java.
+ *
+ * Not thread-safe; feed samples and take decisions on one thread. No allocation per sample.
+ */
+public final class RotationController implements AccelerometerSink {
+
+    private final RotationSettings settings;
+    private final DisplayRotation display;
+    private final Metrics metrics;
+    private final TraceRecorder traceRecorder;
+    private final DetectionPipeline detection;
+    private final LockStateMachine lockStateMachine = new LockStateMachine();
+    // Display rotations seen while upright, to pick the one the user was actually holding
+    private final RotationVote rotationVote = new RotationVote();
+
+    private DetectionConfig config;
+    // The dominant display rotation just before the device went flat, which is what it is
+    // locked to
+    private int lastStableRotation;
+    // Timestamp of the first sample since the device went flat under our lock, or 0
+    private long stillSinceNanos = 0;
+    // The pipeline's suppressed transitions already added to the metrics
+    private long countedSuppressedTransitions = 0;
+
+    /**
+     * @param metrics       where samples, flat transitions, suppressed transitions and errors are
+     *                      counted
+     * @param traceRecorder where samples and decisions are recorded while the config asks for
+     *                      it, or null to never record
+     */
+    public RotationController(DetectionConfig config, RotationSettings settings, DisplayRotation display,
+                              Metrics metrics, TraceRecorder traceRecorder) {
+        this.config = config;
+        this.settings = settings;
+        this.display = display;
+        this.metrics = metrics;
+        this.traceRecorder = traceRecorder;
+        this.detection = new DetectionPipeline(config);
+        this.lastStableRotation = display.currentRotation();
+    }
+
+    public void applyConfig(DetectionConfig config) {
+        this.config = config;
+        detection.applyConfig(config);
+        if (!config.traceEnabled() && traceRecorder != null) {
+            traceRecorder.clear();
+        }
+    }
+
+    /**
+     * Folds one sample into the flat/not-flat state without acting on it; see {@link #act()}.
+     */
+    @Override
+    public int onAccelerometerSample(long timestampNanos, float x, float y, float z) {
+        boolean wasFlatMode = detection.isFlatMode();
+        int result = detection.update(timestampNanos, x, y, z);
+        if (result != DetectionPipeline.SAMPLE_ACCEPTED) {
+            metrics.increment(Metrics.SAMPLES_DROPPED);
+            return result;
+        }
+        metrics.increment(Metrics.SAMPLES_PROCESSED);
+        boolean flatMode = detection.isFlatMode();
+        if (flatMode != wasFlatMode) {
+            metrics.increment(flatMode ? Metrics.FLAT_ENTRIES : Metrics.FLAT_EXITS);
+        }
+        long suppressed = detection.suppressedTransitionCount();
+        if (suppressed != countedSuppressedTransitions) {
+            metrics.add(Metrics.FLAT_TRANSITIONS_SUPPRESSED, suppressed - countedSuppressedTransitions);
+            countedSuppressedTransitions = suppressed;
+        }
+        if (traceRecorder != null && config.traceEnabled()) {
+            int flags = (detection.isDetectorFlat() ? TraceRecorder.FLAG_DETECTOR_FLAT : 0)
+                    | (flatMode ? TraceRecorder.FLAG_FLAT_MODE : 0)
+                    | (detection.isPredictedFlat() ? TraceRecorder.FLAG_PREDICTED_FLAT : 0);
+            traceRecorder.record(timestampNanos, x, y, z, detection.lastFlatness(), flags,
+                    lastStableRotation);
+        }
+        return result;
+    }
+
+    /**
+     * Takes the lock decision for the state the latest sample left and writes it to the
+     * settings. With batching, call this once per burst rather than once per sample.
+     *
+     * @return the {@link LockStateMachine} action taken
+     */
+    public int act() {
+        boolean flatMode = detection.isFlatMode();
+        boolean rotationEnabled = settings.isAutoRotateEnabled();
+
+        // Always track the display rotation when not flat
+        // This ensures we remember what orientation the user had before laying the device flat.
+        // The one held longest over the last second wins, so a rotation the system makes on the
+        // way down doesn't become the lock target. Once a put-down has been seen to start,
+        // the rotations from before the descent are all that count.
+        if (!flatMode && !detection.isDescending()) {
+            rotationVote.observe(detection.lastTimestampNanos(), display.currentRotation());
+            lastStableRotation = rotationVote.dominantRotation(lastStableRotation);
+        }
+
+        int action = lockStateMachine.decide(flatMode, rotationEnabled);
+        if (traceRecorder != null && config.traceEnabled()) {
+            traceRecorder.setLastDecision(action);
+        }
+        switch (action) {
+            case LockStateMachine.ACTION_LOCK:
+                // Use the last stable rotation (captured when device was not flat)
+                // This prevents locking to a transitional orientation
+                settings.lockRotation(lastStableRotation);
+                break;
+            case LockStateMachine.ACTION_UNLOCK:
+                // Simply re-enable auto-rotation without changing the held rotation
+                settings.setAutoRotateEnabled(true);
+                break;
+            default:
+                break;
+        }
+
+        if (!flatMode || !lockStateMachine.isHoldingLock()) {
+            stillSinceNanos = 0;
+        } else if (stillSinceNanos == 0) {
+            stillSinceNanos = detection.lastTimestampNanos();
+        }
+        return action;
+    }
+
+    /**
+     * Whether the device has lain flat under our lock for the config's motion gate delay,
+     * judged on sample timestamps, so the accelerometer can be paused until it moves.
+     * Always false while motion gating is off.
+     */
+    public boolean isReadyForMotionGate() {
+        long delayNanos = config.motionGateDelayNanos();
+        return delayNanos > 0 && stillSinceNanos != 0
+                && detection.lastTimestampNanos() - stillSinceNanos >= delayNanos;
+    }
+
+    /**
+     * Forgets the gravity estimate and restarts the stillness timer, for when the device may
+     * have moved since the last sample.
+     */
+    public void resetFilter() {
+        detection.resetFilter();
+        stillSinceNanos = 0;
+    }
+
+    /**
+     * Like {@link #resetFilter()}, and also adopts the next sample's verdict without waiting
+     * for the dwell time, so the state is right straight away after a gap in sensing.
+     */
+    public void resync() {
+        detection.resync();
+        // Rotations seen before the gap say nothing about how the device is held now
+        rotationVote.reset();
+        stillSinceNanos = 0;
+    }
+
+    /**
+     * Re-enables auto-rotation if we are the ones holding it off, for when we stop watching.
+     *
+     * @return false if there was a lock to release and the setting could not be written
+     */
+    public boolean releaseLock() {
+        return !lockStateMachine.isHoldingLock() || settings.setAutoRotateEnabled(true);
+    }
+
+    /** Whether auto-rotation is currently disabled because of us. */
+    public boolean isHoldingLock() {
+        return lockStateMachine.isHoldingLock();
+    }
+
+    /** The debounced state the lock decision is based on. */
+    public boolean isFlatMode() {
+        return detection.isFlatMode();
+    }
+
+    /**
+     * Whether the device is near enough the thresholds to be worth sampling quickly; see
+     * {@link SamplingZone}.
+     */
+    public boolean isNearThreshold() {
+        return detection.isNearThreshold();
+    }
+
+    /** See {@link DetectionPipeline#isPredictedFlat()}. */
+    public boolean isPredictedFlat() {
+        return detection.isPredictedFlat();
+    }
+
+    /** See {@link DetectionPipeline#predictedEntryCount()}. */
+    public long predictedEntryCount() {
+        return detection.predictedEntryCount();
+    }
+
+    /** The verdict on the last sample with no filtering or dwell time at all. */
+    public boolean isRawFlat() {
+        return detection.isRawFlat();
+    }
+
+    /** Timestamp of the last sample judged, on the sensor's clock. */
+    public long lastTimestampNanos() {
+        return detection.lastTimestampNanos();
+    }
+
+    public int lastStableRotation() {
+        return lastStableRotation;
+    }
+
+    /** See {@link FlatDetector#lastAngleFromVertical()}; not for the per-sample path. */
+    public double lastAngleFromVertical() {
+        return detection.lastAngleFromVertical();
+    }
+
+    public long rawTransitionCount() {
+        return detection.rawTransitionCount();
+    }
+
+    /** See {@link DetectionPipeline#suppressedTransitionCount()}. */
+    public long suppressedTransitionCount() {
+        return detection.suppressedTransitionCount();
+    }
+}
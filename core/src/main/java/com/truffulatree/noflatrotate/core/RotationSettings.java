@@ -0,0 +1,23 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * The system rotation settings the lock logic reads and writes: whether auto-rotate is on,
+ * and the rotation the screen is held at while it is off. Rotations are Surface rotation
+ * values, 0 to 3.
+ */
+public interface RotationSettings {
+
+    boolean isAutoRotateEnabled();
+
+    /**
+     * Disables auto-rotation with the screen held at the given rotation.
+     *
+     * @return false if the settings could not be written
+     */
+    boolean lockRotation(int rotation);
+
+    /**
+     * @return false if the setting could not be written
+     */
+    boolean setAutoRotateEnabled(boolean enabled);
+}
@@ -0,0 +1,96 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Chooses the orientation to lock to from the display rotations seen over the last
+ * {@link #WINDOW_MILLIS}, weighted by how long each was held, rather than from whichever one
+ * happened to be showing on the last upright sample. A rotation the system makes briefly on
+ * the way down then loses to the one the user had been holding, and the device is not locked
+ * to an orientation that needs correcting, with a full relayout of the foreground app, as
+ * soon as it is picked up again.
+ *
+ * Only the changes are kept, in a small ring, so observing the same rotation on every sample
+ * is a couple of compares. No allocation.
+ */
+public final class RotationVote {
+
+    public static final int WINDOW_MILLIS = 1000;
+    private static final long WINDOW_NANOS = WINDOW_MILLIS * 1_000_000L;
+    // More changes than this within the window would have to be a rotation every 125 ms
+    private static final int CAPACITY = 8;
+    // Surface.ROTATION_0 to ROTATION_270
+    private static final int ROTATION_COUNT = 4;
+
+    private final long[] changedAtNanos = new long[CAPACITY];
+    private final int[] rotations = new int[CAPACITY];
+    private final long[] weights = new long[ROTATION_COUNT];
+    // Index of the newest change, and how many of the slots are in use
+    private int newest = -1;
+    private int size = 0;
+    private long lastObservedNanos;
+
+    /**
+     * Records that {@code rotation} was showing at {@code timestampNanos}. Timestamps must not
+     * go backwards; rotations outside 0 to 3 are ignored.
+     */
+    public void observe(long timestampNanos, int rotation) {
+        if (rotation < 0 || rotation >= ROTATION_COUNT) {
+            return;
+        }
+        lastObservedNanos = timestampNanos;
+        if (size > 0 && rotations[newest] == rotation) {
+            return;
+        }
+        newest = (newest + 1) % CAPACITY;
+        changedAtNanos[newest] = timestampNanos;
+        rotations[newest] = rotation;
+        size = Math.min(size + 1, CAPACITY);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The rotation held longest over the window ending at the last observation. Ties go to
+     * the more recent rotation, as does a window with nothing held for any time yet.
+     *
+     * @return the dominant rotation, or {@code fallback} if nothing has been observed
+     */
+    public int dominantRotation(int fallback) {
+        if (size == 0) {
+            return fallback;
+        }
+        for (int i = 0; i < ROTATION_COUNT; i++) {
+            weights[i] = 0;
+        }
+        long windowStart = lastObservedNanos - WINDOW_NANOS;
+        long segmentEnd = lastObservedNanos;
+        int counted = 0;
+        for (int i = newest; counted < size && segmentEnd > windowStart; i = previous(i)) {
+            long segmentStart = Math.max(changedAtNanos[i], windowStart);
+            weights[rotations[i]] += segmentEnd - segmentStart;
+            segmentEnd = segmentStart;
+            counted++;
+        }
+        // Newest first again, so of the rotations with equal weight the most recent is met first
+        int best = rotations[newest];
+        for (int n = 0, i = newest; n < counted; n++, i = previous(i)) {
+            if (weights[rotations[i]] > weights[best]) {
+                best = rotations[i];
+            }
+        }
+        return best;
+    }
+
+    private static int previous(int index) {
+        return (index + CAPACITY - 1) % CAPACITY;
+    }
+
+    /**
+     * Forgets the history, e.g. after a gap in sensing during which anything may have happened.
+     */
+    public void reset() {
+        size = 0;
+        newest = -1;
+    }
+}
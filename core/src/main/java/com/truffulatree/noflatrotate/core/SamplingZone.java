@@ -0,0 +1,66 @@
+package com.truffulatree.noflatrotate.core;
+
+/**
+ * Tells whether the device is near the flat/vertical hysteresis band, where a lock or unlock
+ * decision may be coming and samples are worth paying for, or far from it (standing upright
+ * or lying well flat), where nothing is about to change and a slow rate is enough.
+ *
+ * The band is widened by {@link #MARGIN_DEGREES} on either side so the fast rate is already
+ * in place by the time a threshold is reached. Entering it takes effect at once; leaving it
+ * only once the device has stayed away for {@link #FAR_DWELL_MILLIS}, so a device hovering at
+ * the edge doesn't switch rates on every sample. A device that is being laid down counts as
+ * near wherever it is. Same squared-cosine tests as {@link FlatDetector}; no trig per sample.
+ */
+public final class SamplingZone {
+
+    public static final float MARGIN_DEGREES = 10f;
+    public static final int FAR_DWELL_MILLIS = 1000;
+
+    // Flatter than this is far from the band, lying flat
+    private float flatSideCosSquared;
+    // More upright than this is far from the band, standing up
+    private float uprightSideCosSquared;
+    private final DwellDebouncer farDebouncer = new DwellDebouncer(FAR_DWELL_MILLIS);
+
+    public SamplingZone(float flatThresholdDegrees, float verticalThresholdDegrees) {
+        setThresholds(flatThresholdDegrees, verticalThresholdDegrees);
+    }
+
+    public void setThresholds(float flatThresholdDegrees, float verticalThresholdDegrees) {
+        float flatSide = flatThresholdDegrees - MARGIN_DEGREES;
+        // A threshold within the margin of flat leaves no far zone on that side
+        flatSideCosSquared = flatSide > 0f ? FlatDetector.cosSquared(flatSide) : 1f;
+        uprightSideCosSquared = FlatDetector.cosSquared(verticalThresholdDegrees + MARGIN_DEGREES);
+    }
+
+    /**
+     * Feeds one sample, normally the gravity estimate. Samples too small to judge should not
+     * be passed in.
+     *
+     * @param descending whether the device is on its way down towards flat
+     * @return whether the device is near the band after this sample
+     */
+    public boolean update(long timestampNanos, float x, float y, float z, boolean descending) {
+        float zSquared = z * z;
+        float magnitudeSquared = x * x + y * y + zSquared;
+        boolean far = !descending && (zSquared > flatSideCosSquared * magnitudeSquared
+                || zSquared < uprightSideCosSquared * magnitudeSquared);
+        if (far) {
+            farDebouncer.update(timestampNanos, true);
+        } else {
+            farDebouncer.reset(false);
+        }
+        return isNear();
+    }
+
+    public boolean isNear() {
+        return !farDebouncer.get();
+    }
+
+    /**
+     * Back to near, the safe assumption when nothing is known about the device's position.
+     */
+    public void reset() {
+        farDebouncer.reset(false);
+    }
+}
@@ -0,0 +1,136 @@
+package com.truffulatree.noflatrotate.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Keeps the last N accelerometer samples together with what the service made of them, so a
+ * wrong lock reported from the field can be replayed and explained.
+ *
+ * Each field lives in its own preallocated primitive array used as a ring buffer: recording
+ * is a handful of array stores with no allocation, cheap enough to leave on all the time.
+ * Not thread-safe; record and dump from the same thread.
+ *
+ * <p>Binary format, little-endian: a header of {@link #MAGIC}, {@link #VERSION} and the
+ * record count (three ints), followed by that many {@link #RECORD_BYTES}-byte records,
+ * oldest first: timestamp (long, ns), x, y, z (float, m/s²), flatness (float, z² / |g|² of
+ * the gravity estimate, which {@link FlatDetector#angleFromFlatness} turns into degrees),
+ * flags (byte, {@link #FLAG_DETECTOR_FLAT} | {@link #FLAG_FLAT_MODE} |
+ * {@link #FLAG_PREDICTED_FLAT}), decision (byte, a {@link LockStateMachine} action) and last
+ * stable rotation (byte, a Surface rotation).
+ */
+public final class TraceRecorder {
+
+    public static final int MAGIC = 0x5452464e; // "NFRT" little-endian
+    // Version 1 had the angle in degrees where version 2 has the flatness
+    public static final int VERSION = 2;
+    public static final int HEADER_BYTES = 3 * Integer.BYTES;
+    public static final int RECORD_BYTES = Long.BYTES + 4 * Float.BYTES + 3;
+
+    /** The detector's own verdict for the sample was flat. */
+    public static final int FLAG_DETECTOR_FLAT = 1;
+    /** The device was in flat mode after debouncing. */
+    public static final int FLAG_FLAT_MODE = 1 << 1;
+    /** Flat mode was held on a prediction of the device being laid down. */
+    public static final int FLAG_PREDICTED_FLAT = 1 << 2;
+
+    private final int capacity;
+    private final long[] timestamps;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private final float[] flatnessValues;
+    private final byte[] flags;
+    private final byte[] decisions;
+    private final byte[] stableRotations;
+
+    // Slot the next record goes into, and how many slots hold records
+    private int next = 0;
+    private int size = 0;
+
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        timestamps = new long[capacity];
+        xs = new float[capacity];
+        ys = new float[capacity];
+        zs = new float[capacity];
+        flatnessValues = new float[capacity];
+        flags = new byte[capacity];
+        decisions = new byte[capacity];
+        stableRotations = new byte[capacity];
+    }
+
+    /**
+     * Appends one sample, overwriting the oldest once the buffer is full. The decision starts
+     * out as {@link LockStateMachine#ACTION_NONE}; see {@link #setLastDecision}.
+     */
+    public void record(long timestampNanos, float x, float y, float z, float flatness, int flagBits,
+                       int stableRotation) {
+        int i = next;
+        timestamps[i] = timestampNanos;
+        xs[i] = x;
+        ys[i] = y;
+        zs[i] = z;
+        flatnessValues[i] = flatness;
+        flags[i] = (byte) flagBits;
+        decisions[i] = LockStateMachine.ACTION_NONE;
+        stableRotations[i] = (byte) stableRotation;
+        next = i + 1 == capacity ? 0 : i + 1;
+        if (size < capacity) {
+            size++;
+        }
+    }
+
+    /**
+     * Attaches the lock decision to the most recent sample. With batching, the decision for a
+     * whole burst is taken once, after its newest sample.
+     */
+    public void setLastDecision(int action) {
+        if (size > 0) {
+            decisions[next == 0 ? capacity - 1 : next - 1] = (byte) action;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Writes the buffered records to {@code file}, replacing it, through a memory-mapped
+     * buffer so the whole trace goes out in one mapping rather than many small writes.
+     */
+    public void dump(File file) throws IOException {
+        int length = HEADER_BYTES + size * RECORD_BYTES;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size);
+            int i = size < capacity ? 0 : next;
+            for (int n = 0; n < size; n++) {
+                buffer.putLong(timestamps[i])
+                        .putFloat(xs[i])
+                        .putFloat(ys[i])
+                        .putFloat(zs[i])
+                        .putFloat(flatnessValues[i])
+                        .put(flags[i])
+                        .put(decisions[i])
+                        .put(stableRotations[i]);
+                i = i + 1 == capacity ? 0 : i + 1;
+            }
+            buffer.force();
+        }
+    }
+}
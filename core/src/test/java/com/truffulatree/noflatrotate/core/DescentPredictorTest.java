@@ -0,0 +1,84 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DescentPredictorTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final long SAMPLE_NANOS = 100_000_000L;
+    // The default 20° flat threshold
+    private static final float FLAT_COS_SQUARED = new DetectionConfig.Builder().build().flatCosSquared();
+
+    @Test
+    public void steadyDescent_predictsCrossingAheadOfThreshold() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 200);
+        // 60°/s: 44°, 38°, 32°
+        feedAngles(predictor, 44, 38, 32);
+        assertTrue("Put-down should be seen as a descent", predictor.isDescending());
+        assertTrue("32° falling 6° a sample should cross 20° within 200ms", predictor.willCrossWithinHorizon());
+    }
+
+    @Test
+    public void crossingBeyondHorizon_isNotPredicted() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 200);
+        feedAngles(predictor, 50, 44, 38);
+        assertTrue("Put-down should be seen as a descent", predictor.isDescending());
+        assertFalse("38° is more than 200ms from 20° at this rate", predictor.willCrossWithinHorizon());
+    }
+
+    @Test
+    public void slowDrift_isNotADescent() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 1000);
+        // 5°/s
+        feedAngles(predictor, 23f, 22.5f, 22f, 21.5f, 21f);
+        assertFalse("Drifting hand should not count as a descent", predictor.isDescending());
+        assertFalse("Drifting hand should not be predicted to cross", predictor.willCrossWithinHorizon());
+    }
+
+    @Test
+    public void singleJolt_isNotEnoughToPredict() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 200);
+        feedAngles(predictor, 40, 40, 25);
+        assertTrue("The jolt itself moves towards flat", predictor.isDescending());
+        assertFalse("One descending sample should not predict a crossing", predictor.willCrossWithinHorizon());
+    }
+
+    @Test
+    public void pastThreshold_isNotAPrediction() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 200);
+        feedAngles(predictor, 30, 22, 14);
+        assertFalse("Already past the threshold is the detector's job", predictor.willCrossWithinHorizon());
+    }
+
+    @Test
+    public void zeroHorizon_neverPredicts() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 0);
+        feedAngles(predictor, 44, 38, 32, 26);
+        assertFalse("Disabled predictor should never see a descent", predictor.isDescending());
+        assertFalse("Disabled predictor should never predict", predictor.willCrossWithinHorizon());
+    }
+
+    @Test
+    public void reset_forgetsTheDescent() {
+        DescentPredictor predictor = new DescentPredictor(FLAT_COS_SQUARED, 200);
+        feedAngles(predictor, 44, 38, 32);
+        predictor.reset();
+        assertFalse("Reset should clear the descent", predictor.isDescending());
+        assertFalse("Reset should clear the prediction", predictor.willCrossWithinHorizon());
+    }
+
+    /**
+     * Feeds one sample per angle from flat at 10Hz, top edge up.
+     */
+    private static void feedAngles(DescentPredictor predictor, float... degrees) {
+        long t = 0;
+        for (float angle : degrees) {
+            t += SAMPLE_NANOS;
+            double radians = Math.toRadians(angle);
+            predictor.update(t, 0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)));
+        }
+    }
+}
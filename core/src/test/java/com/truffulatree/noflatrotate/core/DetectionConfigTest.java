@@ -0,0 +1,112 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionConfigTest {
+
+    @Test
+    public void builder_defaultsLeaveOptionalFeaturesOff() {
+        DetectionConfig config = new DetectionConfig.Builder().build();
+        assertEquals("Default flat threshold should be 20°", 20f, config.flatThresholdDegrees(), 0f);
+        assertEquals("Default vertical threshold should be 30°", 30f, config.verticalThresholdDegrees(), 0f);
+        assertEquals("Dwell should be off", 0, config.dwellMillis());
+        assertEquals("Smoothing should be off", 0, config.filterTimeConstantMillis());
+        assertFalse("Batching should be off", config.batchingEnabled());
+        assertEquals("Motion gating should be off", 0L, config.motionGateDelayNanos());
+        assertFalse("Tracing should be off", config.traceEnabled());
+        assertEquals("Prediction should be off", 0, config.predictionMillis());
+        assertFalse("Adaptive sampling should be off", config.adaptiveSampling());
+    }
+
+    @Test
+    public void builder_setsEachValueByName() {
+        DetectionConfig config = new DetectionConfig.Builder()
+                .thresholds(10f, 15f)
+                .dwellMillis(500)
+                .filterTimeConstantMillis(100)
+                .predictionMillis(200)
+                .build();
+        assertEquals("Flat threshold should be set", 10f, config.flatThresholdDegrees(), 0f);
+        assertEquals("Vertical threshold should be set", 15f, config.verticalThresholdDegrees(), 0f);
+        assertEquals("Dwell should be set", 500, config.dwellMillis());
+        assertEquals("Smoothing should be set", 100, config.filterTimeConstantMillis());
+        assertEquals("Prediction should be set", 200, config.predictionMillis());
+    }
+
+    @Test
+    public void thresholds_carryTheirSquaredCosines() {
+        DetectionConfig config = new DetectionConfig.Builder().thresholds(60f, 90f).build();
+        assertEquals("cos²(60°) should be a quarter", 0.25f, config.flatCosSquared(), 1e-6f);
+        assertEquals("cos²(90°) should be zero", 0f, config.verticalCosSquared(), 1e-6f);
+    }
+
+    @Test
+    public void motionGate_isConvertedToNanos() {
+        DetectionConfig config = new DetectionConfig.Builder().motionGateSeconds(90).build();
+        assertEquals("90 seconds should be 90e9 ns", 90_000_000_000L, config.motionGateDelayNanos());
+    }
+
+    @Test
+    public void negativeMotionGate_meansNeverPause() {
+        DetectionConfig config = new DetectionConfig.Builder().motionGateSeconds(-5).build();
+        assertEquals("Negative delay should be treated as off", 0L, config.motionGateDelayNanos());
+    }
+
+    @Test
+    public void needsReregistration_onlyForBatchingChange() {
+        DetectionConfig base = new DetectionConfig.Builder().filterTimeConstantMillis(200).build();
+        assertFalse("Threshold change should not re-register",
+                new DetectionConfig.Builder()
+                        .thresholds(10f, 15f)
+                        .dwellMillis(500)
+                        .filterTimeConstantMillis(100)
+                        .motionGateSeconds(60)
+                        .build()
+                        .needsReregistration(base));
+        assertTrue("Batching change should re-register",
+                new DetectionConfig.Builder().filterTimeConstantMillis(200).batchingEnabled(true).build()
+                        .needsReregistration(base));
+        assertTrue("Power profile change should re-register",
+                new DetectionConfig.Builder().filterTimeConstantMillis(200).powerProfile(PowerProfile.RESPONSIVE).build()
+                        .needsReregistration(base));
+    }
+
+    @Test
+    public void powerProfile_setsSensorRates() {
+        DetectionConfig config = new DetectionConfig.Builder().powerProfile(PowerProfile.LOW_POWER).build();
+        assertEquals("Low power should sample at 5 Hz", 200_000, config.samplingPeriodMicros());
+        assertEquals("Low power should batch for 2 s", 2_000_000, config.maxReportLatencyMicros());
+    }
+
+    @Test
+    public void adaptiveSampling_pickRateAndBatchingByZone() {
+        DetectionConfig config = new DetectionConfig.Builder().batchingEnabled(true).adaptiveSampling(true).build();
+        assertEquals("Near the thresholds should sample at 20 Hz", 50_000, config.samplingPeriodMicros(true));
+        assertEquals("Away from them should sample at 5 Hz", 200_000, config.samplingPeriodMicros(false));
+        assertFalse("Near the thresholds should not batch", config.batchingEnabled(true));
+        assertTrue("Away from them should batch as configured", config.batchingEnabled(false));
+    }
+
+    @Test
+    public void fixedSampling_ignoresZone() {
+        DetectionConfig config = new DetectionConfig.Builder().batchingEnabled(true).build();
+        assertEquals("Near should use the profile's rate", 100_000, config.samplingPeriodMicros(true));
+        assertEquals("Far should use the profile's rate", 100_000, config.samplingPeriodMicros(false));
+        assertTrue("Batching should not depend on the zone", config.batchingEnabled(true));
+        assertTrue("Toggling adaptive sampling should re-register",
+                new DetectionConfig.Builder().batchingEnabled(true).adaptiveSampling(true).build()
+                        .needsReregistration(config));
+    }
+
+    @Test
+    public void unknownPowerProfile_isBalanced() {
+        DetectionConfig config = new DetectionConfig.Builder().powerProfile(7).build();
+        assertEquals("Unknown profile should fall back", PowerProfile.BALANCED, config.powerProfile());
+        assertEquals("Default profile should be balanced", PowerProfile.BALANCED,
+                new DetectionConfig.Builder().build().powerProfile());
+    }
+}
@@ -0,0 +1,147 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionPipelineTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void staleSample_isIgnored() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(0, 0));
+        pipeline.update(200 * MILLIS, 0f, 0f, GRAVITY);
+        assertEquals("Older sample should be stale", DetectionPipeline.SAMPLE_STALE,
+                pipeline.update(100 * MILLIS, 0f, GRAVITY, 0f));
+        assertTrue("Stale sample should not change the state", pipeline.isFlatMode());
+    }
+
+    @Test
+    public void tinySample_isRejected() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(0, 0));
+        assertEquals("Zero vector should be rejected", DetectionPipeline.SAMPLE_REJECTED,
+                pipeline.update(100 * MILLIS, 0f, 0f, 0f));
+    }
+
+    @Test
+    public void flatMode_waitsForDwellTime() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(300, 0));
+        pipeline.update(100 * MILLIS, 0f, 0f, GRAVITY);
+        assertTrue("Detector should see flat at once", pipeline.isDetectorFlat());
+        assertFalse("Flat mode should wait for the dwell", pipeline.isFlatMode());
+        pipeline.update(400 * MILLIS, 0f, 0f, GRAVITY);
+        assertTrue("Flat mode should follow after the dwell", pipeline.isFlatMode());
+    }
+
+    @Test
+    public void resync_adoptsNextVerdictWithoutDwell() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(1000, 0));
+        pipeline.resync();
+        pipeline.update(100 * MILLIS, 0f, 0f, GRAVITY);
+        assertTrue("Resynced sample should skip the dwell", pipeline.isFlatMode());
+    }
+
+    @Test
+    public void filter_suppressesTap() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(0, 200));
+        pipeline.update(100 * MILLIS, 0f, 0f, GRAVITY);
+        pipeline.update(200 * MILLIS, 0f, GRAVITY, 0f);
+        pipeline.update(300 * MILLIS, 0f, 0f, GRAVITY);
+        assertTrue("A single upright sample should not leave flat mode", pipeline.isFlatMode());
+        assertEquals("Both raw transitions should be suppressed", 2, pipeline.suppressedTransitionCount());
+    }
+
+    @Test
+    public void filter_lagAloneSuppressesNothing() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(0, 200));
+        long t = 0;
+        for (int i = 0; i < 20; i++) {
+            pipeline.update(t += 100 * MILLIS, 0f, 0f, GRAVITY);
+        }
+        for (int i = 0; i < 20; i++) {
+            pipeline.update(t += 100 * MILLIS, 0f, GRAVITY, 0f);
+        }
+        assertFalse("The filter should have followed the pick-up", pipeline.isFlatMode());
+        assertEquals("A raw transition the filter followed late is not suppressed", 0,
+                pipeline.suppressedTransitionCount());
+    }
+
+    @Test
+    public void filter_countsOnlyTheRevertedPartOfAFlicker() {
+        DetectionPipeline pipeline = new DetectionPipeline(config(0, 200));
+        long t = 0;
+        for (int i = 0; i < 20; i++) {
+            pipeline.update(t += 100 * MILLIS, 0f, 0f, GRAVITY);
+        }
+        // Lifted, set back down for one sample, then lifted for good
+        pipeline.update(t += 100 * MILLIS, 0f, GRAVITY, 0f);
+        pipeline.update(t += 100 * MILLIS, 0f, 0f, GRAVITY);
+        for (int i = 0; i < 20; i++) {
+            pipeline.update(t += 100 * MILLIS, 0f, GRAVITY, 0f);
+        }
+        assertFalse("The filter should have followed the final lift", pipeline.isFlatMode());
+        assertEquals("Only the lift and set-down that were undone should count", 2,
+                pipeline.suppressedTransitionCount());
+    }
+
+    @Test
+    public void prediction_entersFlatModeAheadOfDetector() {
+        DetectionPipeline pipeline = new DetectionPipeline(predictiveConfig(200));
+        long t = tilt(pipeline, 0, 44, 38, 32);
+        assertFalse("Detector should not see 32° as flat", pipeline.isDetectorFlat());
+        assertTrue("Flat mode should be entered on the prediction", pipeline.isFlatMode());
+        assertTrue("Flat mode should be marked as predicted", pipeline.isPredictedFlat());
+
+        tilt(pipeline, t, 26, 20, 14);
+        assertTrue("Flat mode should hold once the detector agrees", pipeline.isFlatMode());
+        assertFalse("Real verdict should take over", pipeline.isPredictedFlat());
+        assertEquals("One early entry should be counted", 1, pipeline.predictedEntryCount());
+    }
+
+    @Test
+    public void prediction_isDroppedWhenDeviceStopsShort() {
+        DetectionPipeline pipeline = new DetectionPipeline(predictiveConfig(200));
+        tilt(pipeline, 0, 44, 38, 32, 26, 26);
+        assertFalse("Stopping at 26° should leave flat mode", pipeline.isFlatMode());
+        assertFalse("Prediction should be dropped", pipeline.isPredictedFlat());
+    }
+
+    @Test
+    public void noPrediction_waitsForDetector() {
+        DetectionPipeline pipeline = new DetectionPipeline(predictiveConfig(0));
+        tilt(pipeline, 0, 44, 38, 32, 26, 20);
+        assertFalse("Without prediction 20° is not yet flat", pipeline.isFlatMode());
+        assertEquals("Nothing should be predicted", 0, pipeline.predictedEntryCount());
+    }
+
+    /**
+     * Feeds one sample per angle from flat at 10Hz after {@code startNanos}.
+     *
+     * @return the last timestamp used
+     */
+    private static long tilt(DetectionPipeline pipeline, long startNanos, float... degrees) {
+        long t = startNanos;
+        for (float angle : degrees) {
+            t += 100 * MILLIS;
+            double radians = Math.toRadians(angle);
+            pipeline.update(t, 0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)));
+        }
+        return t;
+    }
+
+    private static DetectionConfig predictiveConfig(int predictionMillis) {
+        return new DetectionConfig.Builder().traceEnabled(true).predictionMillis(predictionMillis).build();
+    }
+
+    private static DetectionConfig config(int dwellMillis, int filterMillis) {
+        return new DetectionConfig.Builder()
+                .dwellMillis(dwellMillis)
+                .filterTimeConstantMillis(filterMillis)
+                .traceEnabled(true)
+                .build();
+    }
+}
@@ -0,0 +1,52 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DwellDebouncerTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void zeroDwell_changesImmediately() {
+        DwellDebouncer debouncer = new DwellDebouncer(0);
+        assertTrue("Zero dwell should accept a change at once", debouncer.update(100 * MILLIS, true));
+        assertFalse("Zero dwell should accept a change back at once", debouncer.update(200 * MILLIS, false));
+    }
+
+    @Test
+    public void change_isHeldBackUntilDwellElapses() {
+        DwellDebouncer debouncer = new DwellDebouncer(500);
+        assertFalse("Change should be pending", debouncer.update(100 * MILLIS, true));
+        assertFalse("Change should still be pending at 400ms", debouncer.update(500 * MILLIS, true));
+        assertTrue("Change should be accepted after 500ms", debouncer.update(600 * MILLIS, true));
+    }
+
+    @Test
+    public void briefExcursion_isIgnored() {
+        DwellDebouncer debouncer = new DwellDebouncer(300);
+        debouncer.update(0L, true);
+        debouncer.update(300 * MILLIS, true);
+        assertTrue("Should be settled in the new state", debouncer.get());
+
+        // Lifted for 200ms, then back down
+        debouncer.update(400 * MILLIS, false);
+        debouncer.update(600 * MILLIS, false);
+        assertTrue("Excursion shorter than the dwell should be ignored", debouncer.update(700 * MILLIS, true));
+        // The earlier excursion must not count towards the next one
+        assertTrue("Pending change should restart", debouncer.update(800 * MILLIS, false));
+        assertTrue("Pending change should restart", debouncer.update(1000 * MILLIS, false));
+        assertFalse("Change should land once it has held for the dwell", debouncer.update(1100 * MILLIS, false));
+    }
+
+    @Test
+    public void reset_skipsTheDwell() {
+        DwellDebouncer debouncer = new DwellDebouncer(500);
+        debouncer.update(0L, true);
+        debouncer.reset(true);
+        assertTrue("Reset should take effect at once", debouncer.get());
+        assertTrue("Reset value should hold", debouncer.update(100 * MILLIS, true));
+    }
+}
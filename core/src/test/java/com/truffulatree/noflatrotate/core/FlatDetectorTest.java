@@ -0,0 +1,141 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlatDetectorTest {
+
+    private static final float GRAVITY = 9.81f;
+
+    // ==================== Basic Decision Tests ====================
+
+    @Test
+    public void flatFaceUp_isFlat() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        assertTrue("Sample should be accepted", detector.update(0f, 0f, GRAVITY));
+        assertTrue("Flat face up should be flat", detector.isFlat());
+    }
+
+    @Test
+    public void flatFaceDown_isFlat() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        detector.update(0f, 0f, -GRAVITY);
+        assertTrue("Flat face down should be flat", detector.isFlat());
+    }
+
+    @Test
+    public void verticalPortrait_isNotFlat() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        detector.update(0f, GRAVITY, 0f);
+        assertFalse("Vertical portrait should not be flat", detector.isFlat());
+    }
+
+    @Test
+    public void verySmallMagnitude_isRejectedAndKeepsState() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        detector.update(0f, 0f, GRAVITY);
+        assertFalse("Very small magnitude should be rejected", detector.update(0.01f, 0.01f, 0.01f));
+        assertTrue("Rejected sample should not change state", detector.isFlat());
+    }
+
+    @Test
+    public void hysteresis_staysFlatInsideBand() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        feed(detector, 15.0);
+        assertTrue("Should enter flat at 15 degrees", detector.isFlat());
+        feed(detector, 25.0);
+        assertTrue("Should stay flat at 25 degrees (hysteresis)", detector.isFlat());
+        feed(detector, 35.0);
+        assertFalse("Should exit flat at 35 degrees", detector.isFlat());
+        feed(detector, 25.0);
+        assertFalse("Should NOT re-enter flat at 25 degrees", detector.isFlat());
+    }
+
+    @Test
+    public void setThresholds_appliesToNextSample() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        feed(detector, 30.0);
+        assertFalse("30 degrees should not be flat with a 20 degree threshold", detector.isFlat());
+        detector.setThresholds(35f, 45f);
+        feed(detector, 30.0);
+        assertTrue("30 degrees should be flat with a 35 degree threshold", detector.isFlat());
+    }
+
+    @Test
+    public void setThresholdsFromConfig_appliesToNextSample() {
+        FlatDetector detector = new FlatDetector(new DetectionConfig.Builder().build());
+        feed(detector, 30.0);
+        assertFalse("30 degrees should not be flat with the default 20 degree threshold", detector.isFlat());
+        detector.setThresholds(new DetectionConfig.Builder().thresholds(35f, 45f).build());
+        feed(detector, 30.0);
+        assertTrue("30 degrees should be flat with a 35 degree threshold", detector.isFlat());
+    }
+
+    @Test
+    public void lastAngleFromVertical_matchesTilt() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        feed(detector, 45.0);
+        assertEquals("Reported angle should match the tilt", 45.0, detector.lastAngleFromVertical(), 0.5);
+    }
+
+    @Test
+    public void lastFlatness_convertsBackToTheTilt() {
+        FlatDetector detector = new FlatDetector(20f, 30f);
+        assertEquals("Flatness before any sample should read as upright", 0f, detector.lastFlatness(), 0f);
+        feed(detector, 60.0);
+        assertEquals("Flatness should be cos² of the tilt", 0.25f, detector.lastFlatness(), 1e-4f);
+        assertEquals("Flatness should convert back to the tilt", 60.0,
+                FlatDetector.angleFromFlatness(detector.lastFlatness()), 0.5);
+    }
+
+    // ==================== Equivalence Tests ====================
+
+    @Test
+    public void decisions_matchAcosReference() {
+        float[][] thresholdPairs = {{5f, 10f}, {20f, 30f}, {35f, 45f}, {45f, 60f}};
+        for (float[] thresholds : thresholdPairs) {
+            FlatDetector detector = new FlatDetector(thresholds[0], thresholds[1]);
+            boolean referenceFlat = false;
+            // Sweep down and back up through the band in 0.25 degree steps, off the exact boundaries
+            for (int step = 0; step < 2 * 360; step++) {
+                double degrees = step < 360 ? 90.0 - step * 0.25 : (step - 360) * 0.25;
+                degrees += 0.0625;
+                float y = tiltY(degrees);
+                float z = tiltZ(degrees);
+                detector.update(0f, y, z);
+                referenceFlat = referenceShouldBeFlat(0f, y, z, referenceFlat, thresholds[0], thresholds[1]);
+                assertEquals("Decision mismatch at " + degrees + " degrees with thresholds "
+                        + thresholds[0] + "/" + thresholds[1], referenceFlat, detector.isFlat());
+            }
+        }
+    }
+
+    // ==================== Helper Methods ====================
+
+    private static void feed(FlatDetector detector, double degrees) {
+        detector.update(0f, tiltY(degrees), tiltZ(degrees));
+    }
+
+    private static float tiltY(double degrees) {
+        return (float) (GRAVITY * Math.sin(Math.toRadians(degrees)));
+    }
+
+    private static float tiltZ(double degrees) {
+        return (float) (GRAVITY * Math.cos(Math.toRadians(degrees)));
+    }
+
+    /**
+     * The original acos-based hysteresis from RotationService.onSensorChanged().
+     */
+    private static boolean referenceShouldBeFlat(float x, float y, float z, boolean currentlyFlat,
+                                                 float flatThreshold, float verticalThreshold) {
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        double normalizedZ = Math.max(0.0, Math.min(1.0, Math.abs(z) / magnitude));
+        double angleFromVertical = Math.acos(normalizedZ) * 180.0 / Math.PI;
+        float threshold = currentlyFlat ? verticalThreshold : flatThreshold;
+        return (Math.abs(angleFromVertical) < threshold) || (Math.abs(angleFromVertical - 180.0) < threshold);
+    }
+}
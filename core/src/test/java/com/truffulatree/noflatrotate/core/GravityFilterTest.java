@@ -0,0 +1,73 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GravityFilterTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final long SAMPLE_NANOS = 100_000_000L; // 100ms
+
+    @Test
+    public void firstSample_passesThrough() {
+        GravityFilter filter = new GravityFilter(200);
+        filter.update(SAMPLE_NANOS, 1f, 2f, GRAVITY);
+        assertEquals("First sample should not lag", 1f, filter.x(), 0f);
+        assertEquals("First sample should not lag", 2f, filter.y(), 0f);
+        assertEquals("First sample should not lag", GRAVITY, filter.z(), 0f);
+    }
+
+    @Test
+    public void zeroTimeConstant_passesThrough() {
+        GravityFilter filter = new GravityFilter(0);
+        filter.update(SAMPLE_NANOS, 0f, 0f, GRAVITY);
+        filter.update(2 * SAMPLE_NANOS, 0f, GRAVITY, 0f);
+        assertEquals("Unfiltered output should follow input", GRAVITY, filter.y(), 0f);
+    }
+
+    @Test
+    public void singleSpike_isAttenuated() {
+        GravityFilter filter = new GravityFilter(500);
+        filter.update(SAMPLE_NANOS, 0f, 0f, GRAVITY);
+        // A tap on the table: one sample of strong sideways acceleration
+        filter.update(2 * SAMPLE_NANOS, 0f, 20f, GRAVITY);
+        assertTrue("Spike should be mostly filtered out", filter.y() < 20f * 0.2f);
+    }
+
+    @Test
+    public void steadyInput_isReachedAfterSeveralTimeConstants() {
+        GravityFilter filter = new GravityFilter(200);
+        filter.update(SAMPLE_NANOS, 0f, 0f, GRAVITY);
+        for (int i = 2; i <= 20; i++) {
+            filter.update(i * SAMPLE_NANOS, 0f, GRAVITY, 0f);
+        }
+        assertEquals("Output should converge on a steady input", GRAVITY, filter.y(), 0.01f);
+    }
+
+    @Test
+    public void batchedSamples_useTimestampsNotCount() {
+        // The same two seconds of input at 10Hz and at 50Hz should settle to nearly the same point
+        GravityFilter slow = new GravityFilter(1000);
+        GravityFilter fast = new GravityFilter(1000);
+        slow.update(0L, 0f, 0f, 0f);
+        fast.update(0L, 0f, 0f, 0f);
+        for (int i = 1; i <= 20; i++) {
+            slow.update(i * SAMPLE_NANOS, 0f, GRAVITY, 0f);
+        }
+        for (int i = 1; i <= 100; i++) {
+            fast.update(i * SAMPLE_NANOS / 5, 0f, GRAVITY, 0f);
+        }
+        assertEquals("Response should depend on elapsed time", slow.y(), fast.y(), 0.5f);
+    }
+
+    @Test
+    public void reset_restartsFromNextSample() {
+        GravityFilter filter = new GravityFilter(1000);
+        filter.update(SAMPLE_NANOS, 0f, 0f, GRAVITY);
+        filter.reset();
+        filter.update(2 * SAMPLE_NANOS, 0f, GRAVITY, 0f);
+        assertEquals("Reset filter should take the next sample as-is", GRAVITY, filter.y(), 0f);
+    }
+}
@@ -0,0 +1,51 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockStateMachineTest {
+
+    @Test
+    public void flat_withAutoRotate_locks() {
+        LockStateMachine machine = new LockStateMachine();
+        assertEquals("Flat with auto-rotate on should lock",
+                LockStateMachine.ACTION_LOCK, machine.decide(true, true));
+        assertTrue("Machine should remember it holds the lock", machine.isHoldingLock());
+    }
+
+    @Test
+    public void flat_withAutoRotateOff_doesNothing() {
+        LockStateMachine machine = new LockStateMachine();
+        assertEquals("User's own rotation lock should be left alone",
+                LockStateMachine.ACTION_NONE, machine.decide(true, false));
+        assertFalse("Machine should not claim a lock it did not take", machine.isHoldingLock());
+    }
+
+    @Test
+    public void notFlat_afterOurLock_unlocks() {
+        LockStateMachine machine = new LockStateMachine();
+        machine.decide(true, true);
+        assertEquals("Leaving flat should undo our lock",
+                LockStateMachine.ACTION_UNLOCK, machine.decide(false, false));
+        assertFalse("Lock should be released", machine.isHoldingLock());
+    }
+
+    @Test
+    public void notFlat_afterExternalUnlock_resets() {
+        LockStateMachine machine = new LockStateMachine();
+        machine.decide(true, true);
+        assertEquals("Auto-rotate re-enabled externally should just reset",
+                LockStateMachine.ACTION_RESET, machine.decide(false, true));
+        assertFalse("Lock should be forgotten", machine.isHoldingLock());
+    }
+
+    @Test
+    public void notFlat_withoutOurLock_doesNothing() {
+        LockStateMachine machine = new LockStateMachine();
+        assertEquals("Nothing to undo", LockStateMachine.ACTION_NONE, machine.decide(false, false));
+        assertEquals("Nothing to undo", LockStateMachine.ACTION_NONE, machine.decide(false, true));
+    }
+}
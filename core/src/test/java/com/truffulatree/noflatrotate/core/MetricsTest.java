@@ -0,0 +1,90 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricsTest {
+
+    @Test
+    public void increment_countsPerCounter() {
+        Metrics metrics = new Metrics();
+        metrics.increment(Metrics.SAMPLES_PROCESSED);
+        metrics.increment(Metrics.SAMPLES_PROCESSED);
+        metrics.increment(Metrics.FLAT_ENTRIES);
+        assertEquals("Samples should be counted", 2, metrics.get(Metrics.SAMPLES_PROCESSED));
+        assertEquals("Flat entries should be counted separately", 1, metrics.get(Metrics.FLAT_ENTRIES));
+        assertEquals("Untouched counters should stay at zero", 0, metrics.get(Metrics.ROTATION_ERRORS));
+    }
+
+    @Test
+    public void add_countsSeveralAtOnce() {
+        Metrics metrics = new Metrics();
+        metrics.increment(Metrics.FLAT_TRANSITIONS_SUPPRESSED);
+        metrics.add(Metrics.FLAT_TRANSITIONS_SUPPRESSED, 2);
+        assertEquals("Added and incremented counts should sum", 3, metrics.get(Metrics.FLAT_TRANSITIONS_SUPPRESSED));
+    }
+
+    @Test
+    public void sensorOnTime_accumulatesCompletedIntervals() {
+        Metrics metrics = new Metrics();
+        metrics.sensorStarted(100);
+        metrics.sensorStopped(400);
+        metrics.sensorStarted(1000);
+        metrics.sensorStopped(1100);
+        assertEquals("Both intervals should be summed", 400, metrics.sensorOnNanos(5000));
+    }
+
+    @Test
+    public void sensorOnTime_includesIntervalInProgress() {
+        Metrics metrics = new Metrics();
+        metrics.sensorStarted(100);
+        assertEquals("Running interval should count up to now", 900, metrics.sensorOnNanos(1000));
+    }
+
+    @Test
+    public void sensorOnTime_ignoresRepeatedStartsAndStops() {
+        Metrics metrics = new Metrics();
+        metrics.sensorStopped(50);
+        metrics.sensorStarted(100);
+        metrics.sensorStarted(300);
+        metrics.sensorStopped(500);
+        metrics.sensorStopped(900);
+        assertEquals("Only the first start and stop should count", 400, metrics.sensorOnNanos(1000));
+    }
+
+    @Test
+    public void sinceStart_isZeroUntilMarked() {
+        Metrics metrics = new Metrics();
+        assertEquals("Unmarked start should read as zero", 0, metrics.sinceStartNanos(1000));
+        metrics.markStarted(300);
+        assertEquals("Time should count from the mark", 700, metrics.sinceStartNanos(1000));
+    }
+
+    @Test
+    public void latency_tracksCountMeanAndMaxSeparately() {
+        Metrics metrics = new Metrics();
+        metrics.recordLatency(Metrics.LATENCY_DETECTION, 100);
+        metrics.recordLatency(Metrics.LATENCY_DETECTION, 300);
+        metrics.recordLatency(Metrics.LATENCY_ACTUATION, -5);
+        assertEquals("Both detections should be counted", 2, metrics.latencyCount(Metrics.LATENCY_DETECTION));
+        assertEquals("Mean should average them", 200, metrics.meanLatencyNanos(Metrics.LATENCY_DETECTION));
+        assertEquals("Max should be the largest", 300, metrics.maxLatencyNanos(Metrics.LATENCY_DETECTION));
+        assertEquals("Actuation should be counted apart", 1, metrics.latencyCount(Metrics.LATENCY_ACTUATION));
+        assertEquals("Negative latency should count as zero", 0, metrics.maxLatencyNanos(Metrics.LATENCY_ACTUATION));
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        Metrics metrics = new Metrics();
+        metrics.increment(Metrics.SAMPLES_DROPPED);
+        metrics.sensorStarted(100);
+        metrics.markStarted(100);
+        metrics.recordLatency(Metrics.LATENCY_ACTUATION, 50);
+        metrics.reset();
+        assertEquals("Counters should be cleared", 0, metrics.get(Metrics.SAMPLES_DROPPED));
+        assertEquals("Sensor time should be cleared", 0, metrics.sensorOnNanos(1000));
+        assertEquals("Start time should be cleared", 0, metrics.sinceStartNanos(1000));
+        assertEquals("Latencies should be cleared", 0, metrics.latencyCount(Metrics.LATENCY_ACTUATION));
+    }
+}
@@ -0,0 +1,75 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PowerProfileTest {
+
+    // ==================== Profile Tests ====================
+
+    @Test
+    public void profiles_sampleFasterAsTheyGetMoreResponsive() {
+        assertTrue("Balanced should sample faster than low power",
+                PowerProfile.samplingPeriodMicros(PowerProfile.BALANCED)
+                        < PowerProfile.samplingPeriodMicros(PowerProfile.LOW_POWER));
+        assertTrue("Responsive should sample faster than balanced",
+                PowerProfile.samplingPeriodMicros(PowerProfile.RESPONSIVE)
+                        < PowerProfile.samplingPeriodMicros(PowerProfile.BALANCED));
+        assertTrue("Responsive should smooth less than low power",
+                PowerProfile.filterTimeConstantMillis(PowerProfile.RESPONSIVE)
+                        < PowerProfile.filterTimeConstantMillis(PowerProfile.LOW_POWER));
+    }
+
+    @Test
+    public void sanitize_fallsBackToBalanced() {
+        assertEquals("Negative should fall back", PowerProfile.BALANCED, PowerProfile.sanitize(-1));
+        assertEquals("Past the end should fall back", PowerProfile.BALANCED, PowerProfile.sanitize(PowerProfile.COUNT));
+        assertEquals("Known profiles should be kept", PowerProfile.RESPONSIVE,
+                PowerProfile.sanitize(PowerProfile.RESPONSIVE));
+    }
+
+    // ==================== Wakeup Estimate Tests ====================
+
+    @Test
+    public void estimate_isOnePerSampleWithoutBatching() {
+        assertEquals("10 Hz for an hour", 36_000,
+                PowerProfile.estimateWakeupsPerHour(PowerProfile.BALANCED, false, 1.0));
+    }
+
+    @Test
+    public void estimate_isOnePerBatchWithBatching() {
+        assertEquals("One batch a second for an hour", 3_600,
+                PowerProfile.estimateWakeupsPerHour(PowerProfile.BALANCED, true, 1.0));
+        assertEquals("One batch every two seconds for an hour", 1_800,
+                PowerProfile.estimateWakeupsPerHour(PowerProfile.LOW_POWER, true, 1.0));
+    }
+
+    @Test
+    public void estimate_scalesWithSensorOnTime() {
+        assertEquals("Sensor on a quarter of the time", 9_000,
+                PowerProfile.estimateWakeupsPerHour(PowerProfile.BALANCED, false, 0.25));
+        assertEquals("Fractions past 1 should be clamped", 36_000,
+                PowerProfile.estimateWakeupsPerHour(PowerProfile.BALANCED, false, 3.0));
+    }
+
+    @Test
+    public void projection_scalesTheMeasuredRateByDeliveryInterval() {
+        // Adaptive sampling left the sensor slower than nominal: 20,000 an hour, not 36,000
+        assertEquals("The measured profile should keep its measured rate", 20_000,
+                PowerProfile.projectWakeupsPerHour(20_000, PowerProfile.BALANCED, PowerProfile.BALANCED, false, 1.0));
+        assertEquals("Sampling twice as slowly should halve it", 10_000,
+                PowerProfile.projectWakeupsPerHour(20_000, PowerProfile.BALANCED, PowerProfile.LOW_POWER, false, 1.0));
+        assertEquals("Sensor on half the time should halve it again", 5_000,
+                PowerProfile.projectWakeupsPerHour(20_000, PowerProfile.BALANCED, PowerProfile.LOW_POWER, false, 0.5));
+    }
+
+    @Test
+    public void projection_usesBatchIntervalsOnlyWhenBatching() {
+        assertEquals("Batches every two seconds instead of one should halve it", 1_800,
+                PowerProfile.projectWakeupsPerHour(3_600, PowerProfile.BALANCED, PowerProfile.LOW_POWER, true, 1.0));
+        assertEquals("Without a FIFO the sample rates decide", 90_000,
+                PowerProfile.projectWakeupsPerHour(36_000, PowerProfile.BALANCED, PowerProfile.RESPONSIVE, false, 1.0));
+    }
+}
@@ -0,0 +1,245 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RotationControllerTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final long SAMPLE_NANOS = 100_000_000L;
+
+    private FakeSettings settings;
+    private Metrics metrics;
+    private int displayRotation;
+    private long timestampNanos;
+
+    @Before
+    public void setUp() {
+        settings = new FakeSettings();
+        metrics = new Metrics();
+        displayRotation = 0;
+        timestampNanos = 0;
+    }
+
+    // ==================== Lock Decision Tests ====================
+
+    @Test
+    public void lyingFlat_locksToRotationBeforeGoingFlat() {
+        RotationController controller = controller(config(0));
+        displayRotation = 1;
+        feed(controller, 3, 0f, GRAVITY, 0f);
+        displayRotation = 0; // the display is already turning back as the device goes down
+        feed(controller, 1, 0f, 0f, GRAVITY);
+
+        assertFalse("Auto-rotate should be off once flat", settings.autoRotate);
+        assertEquals("Should lock to the rotation held while upright", 1, settings.lockedRotation);
+        assertTrue("Lock should be ours", controller.isHoldingLock());
+    }
+
+    @Test
+    public void lyingFlat_ignoresBriefRotationOnTheWayDown() {
+        RotationController controller = controller(config(0));
+        displayRotation = 1;
+        feed(controller, 20, GRAVITY, 0f, 0f);
+        // The system turns to portrait for a moment before the device is flat
+        displayRotation = 0;
+        feed(controller, 3, 0f, GRAVITY, 0f);
+        feed(controller, 1, 0f, 0f, GRAVITY);
+
+        assertEquals("Should lock to the landscape the user was holding", 1, settings.lockedRotation);
+    }
+
+    @Test
+    public void pickingUp_unlocks() {
+        RotationController controller = controller(config(0));
+        feed(controller, 1, 0f, 0f, GRAVITY);
+        int action = feed(controller, 1, 0f, GRAVITY, 0f);
+
+        assertEquals("Lifting the device should unlock", LockStateMachine.ACTION_UNLOCK, action);
+        assertTrue("Auto-rotate should be back on", settings.autoRotate);
+    }
+
+    @Test
+    public void userLock_isNeverUndone() {
+        settings.autoRotate = false;
+        RotationController controller = controller(config(0));
+        feed(controller, 1, 0f, 0f, GRAVITY);
+        feed(controller, 1, 0f, GRAVITY, 0f);
+
+        assertEquals("Nothing should be written over the user's own lock", 0, settings.writes);
+        assertFalse("User's lock should stay", settings.autoRotate);
+    }
+
+    @Test
+    public void releaseLock_onlyReleasesOurLock() {
+        RotationController controller = controller(config(0));
+        assertTrue("Nothing to release should succeed", controller.releaseLock());
+        assertEquals("Nothing to release should write nothing", 0, settings.writes);
+
+        feed(controller, 1, 0f, 0f, GRAVITY);
+        assertTrue("Our lock should be released", controller.releaseLock());
+        assertTrue("Auto-rotate should be back on", settings.autoRotate);
+    }
+
+    @Test
+    public void prediction_locksEarlyToRotationFromBeforeDescent() {
+        RotationController controller = controller(
+                new DetectionConfig.Builder().predictionMillis(200).build());
+        displayRotation = 1;
+        feedTilted(controller, 70);
+        feedTilted(controller, 50);
+        displayRotation = 0; // the system rotates the display on the way down
+        feedTilted(controller, 44);
+        int action = feedTilted(controller, 38);
+        assertEquals("Not yet predicted at 38°", LockStateMachine.ACTION_NONE, action);
+        action = feedTilted(controller, 32);
+
+        assertEquals("Should lock while still at 32°", LockStateMachine.ACTION_LOCK, action);
+        assertTrue("Lock should be held on the prediction", controller.isPredictedFlat());
+        assertEquals("Should lock to the rotation from before the descent", 1, settings.lockedRotation);
+    }
+
+    // ==================== Metrics Tests ====================
+
+    @Test
+    public void samples_areCounted() {
+        RotationController controller = controller(config(0));
+        feed(controller, 2, 0f, 0f, GRAVITY);
+        controller.onAccelerometerSample(timestampNanos, 0f, 0f, GRAVITY);
+        controller.onAccelerometerSample(timestampNanos + 1, 0f, 0f, 0f);
+
+        assertEquals("Judged samples should be counted", 2, metrics.get(Metrics.SAMPLES_PROCESSED));
+        assertEquals("Stale and empty samples should be dropped", 2, metrics.get(Metrics.SAMPLES_DROPPED));
+        assertEquals("Going flat should count once", 1, metrics.get(Metrics.FLAT_ENTRIES));
+    }
+
+    @Test
+    public void suppressedTransitions_areCounted() {
+        RotationController controller = controller(new DetectionConfig.Builder().filterTimeConstantMillis(200).build());
+        feed(controller, 1, 0f, 0f, GRAVITY);
+        // A single jolt that looks upright in the raw signal, and back
+        feed(controller, 1, 0f, GRAVITY, 0f);
+        feed(controller, 1, 0f, 0f, GRAVITY);
+
+        assertEquals("Both raw transitions of the jolt should be counted", 2,
+                metrics.get(Metrics.FLAT_TRANSITIONS_SUPPRESSED));
+        assertEquals("The filter should have kept the device flat", 0, metrics.get(Metrics.FLAT_EXITS));
+    }
+
+    @Test
+    public void cleanPutDownAndPickUp_suppressNothing() {
+        RotationController controller = controller(new DetectionConfig.Builder().filterTimeConstantMillis(200).build());
+        feed(controller, 20, 0f, GRAVITY, 0f);
+        // The filter follows each move a few samples after the raw signal does
+        feed(controller, 20, 0f, 0f, GRAVITY);
+        feed(controller, 20, 0f, GRAVITY, 0f);
+
+        assertEquals("Going flat and back should count once each", 1, metrics.get(Metrics.FLAT_EXITS));
+        assertEquals("Filter lag should not count as suppression", 0,
+                metrics.get(Metrics.FLAT_TRANSITIONS_SUPPRESSED));
+        assertEquals("The pipeline should agree", 0, controller.suppressedTransitionCount());
+    }
+
+    // ==================== Motion Gate Tests ====================
+
+    @Test
+    public void motionGate_readyAfterDelayFlatAndLocked() {
+        RotationController controller = controller(new DetectionConfig.Builder().motionGateSeconds(1).build());
+        feed(controller, 10, 0f, 0f, GRAVITY);
+        assertFalse("Not ready before the delay has passed", controller.isReadyForMotionGate());
+
+        feed(controller, 1, 0f, 0f, GRAVITY);
+        assertTrue("Ready once flat and locked for the delay", controller.isReadyForMotionGate());
+
+        controller.resetFilter();
+        assertFalse("Resetting should restart the timer", controller.isReadyForMotionGate());
+    }
+
+    @Test
+    public void motionGate_neverReadyWhenDisabled() {
+        RotationController controller = controller(config(0));
+        feed(controller, 100, 0f, 0f, GRAVITY);
+        assertFalse("Gating off should never be ready", controller.isReadyForMotionGate());
+    }
+
+    // ==================== Trace Tests ====================
+
+    @Test
+    public void trace_recordsOnlyWhenEnabled() {
+        TraceRecorder recorder = new TraceRecorder(10);
+        RotationController controller = new RotationController(config(0), settings, () -> displayRotation,
+                metrics, recorder);
+        feed(controller, 3, 0f, 0f, GRAVITY);
+        assertEquals("Tracing off should record nothing", 0, recorder.size());
+
+        controller.applyConfig(new DetectionConfig.Builder().traceEnabled(true).build());
+        feed(controller, 3, 0f, 0f, GRAVITY);
+        assertEquals("Tracing on should record every sample", 3, recorder.size());
+
+        controller.applyConfig(config(0));
+        assertEquals("Turning tracing off should drop the trace", 0, recorder.size());
+    }
+
+    // ==================== Helper Methods ====================
+
+    private RotationController controller(DetectionConfig config) {
+        return new RotationController(config, settings, () -> displayRotation, metrics, null);
+    }
+
+    private static DetectionConfig config(int dwellMillis) {
+        return new DetectionConfig.Builder().dwellMillis(dwellMillis).build();
+    }
+
+    /**
+     * Feeds and acts on {@code count} identical samples at 10Hz.
+     *
+     * @return the action taken on the last one
+     */
+    private int feed(RotationController controller, int count, float x, float y, float z) {
+        int action = LockStateMachine.ACTION_NONE;
+        for (int i = 0; i < count; i++) {
+            timestampNanos += SAMPLE_NANOS;
+            controller.onAccelerometerSample(timestampNanos, x, y, z);
+            action = controller.act();
+        }
+        return action;
+    }
+
+    /**
+     * Feeds and acts on one sample tilted {@code degrees} from flat, top edge up.
+     */
+    private int feedTilted(RotationController controller, double degrees) {
+        double radians = Math.toRadians(degrees);
+        return feed(controller, 1, 0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)));
+    }
+
+    private static final class FakeSettings implements RotationSettings {
+        boolean autoRotate = true;
+        int lockedRotation = -1;
+        int writes = 0;
+
+        @Override
+        public boolean isAutoRotateEnabled() {
+            return autoRotate;
+        }
+
+        @Override
+        public boolean lockRotation(int rotation) {
+            lockedRotation = rotation;
+            autoRotate = false;
+            writes++;
+            return true;
+        }
+
+        @Override
+        public boolean setAutoRotateEnabled(boolean enabled) {
+            autoRotate = enabled;
+            writes++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RotationVoteTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void empty_returnsFallback() {
+        RotationVote vote = new RotationVote();
+        assertTrue("New vote should be empty", vote.isEmpty());
+        assertEquals("Nothing observed should return the fallback", 2, vote.dominantRotation(2));
+    }
+
+    @Test
+    public void singleObservation_wins() {
+        RotationVote vote = new RotationVote();
+        vote.observe(100 * MILLIS, 1);
+        assertEquals("Only rotation seen should win", 1, vote.dominantRotation(0));
+    }
+
+    @Test
+    public void briefRotation_losesToHeldOne() {
+        RotationVote vote = new RotationVote();
+        observeEvery100Ms(vote, 0, 20, 1);
+        // The system turns to portrait for the last 300 ms as the device goes down
+        observeEvery100Ms(vote, 2000, 3, 0);
+        assertEquals("Landscape held for the rest of the window should win", 1, vote.dominantRotation(0));
+    }
+
+    @Test
+    public void deliberateRotation_winsOnceHeldLongEnough() {
+        RotationVote vote = new RotationVote();
+        observeEvery100Ms(vote, 0, 20, 0);
+        observeEvery100Ms(vote, 2000, 8, 1);
+        assertEquals("Landscape held for most of the window should win", 1, vote.dominantRotation(0));
+    }
+
+    @Test
+    public void onlyTheWindowCounts() {
+        RotationVote vote = new RotationVote();
+        // Landscape for a long time, then portrait for all of the last second
+        observeEvery100Ms(vote, 0, 100, 1);
+        observeEvery100Ms(vote, 10_000, 11, 0);
+        assertEquals("Rotations from before the window should not count", 0, vote.dominantRotation(1));
+    }
+
+    @Test
+    public void tie_goesToMostRecent() {
+        RotationVote vote = new RotationVote();
+        vote.observe(0, 2);
+        vote.observe(500 * MILLIS, 3);
+        vote.observe(1000 * MILLIS, 3);
+        assertEquals("Equal dwell should go to the more recent rotation", 3, vote.dominantRotation(0));
+    }
+
+    @Test
+    public void manyChanges_overflowRing() {
+        RotationVote vote = new RotationVote();
+        for (int i = 0; i < 40; i++) {
+            vote.observe(i * 10 * MILLIS, i % 2 == 0 ? 0 : 3);
+        }
+        vote.observe(2000 * MILLIS, 3);
+        assertEquals("The rotation held at the end should win", 3, vote.dominantRotation(0));
+    }
+
+    @Test
+    public void invalidRotation_isIgnored() {
+        RotationVote vote = new RotationVote();
+        vote.observe(100 * MILLIS, 7);
+        assertTrue("Invalid rotation should not be recorded", vote.isEmpty());
+    }
+
+    @Test
+    public void reset_forgetsHistory() {
+        RotationVote vote = new RotationVote();
+        observeEvery100Ms(vote, 0, 10, 1);
+        vote.reset();
+        assertEquals("Reset should return the fallback", 0, vote.dominantRotation(0));
+    }
+
+    private static void observeEvery100Ms(RotationVote vote, long startMillis, int count, int rotation) {
+        for (int i = 0; i < count; i++) {
+            vote.observe((startMillis + i * 100) * MILLIS, rotation);
+        }
+    }
+}
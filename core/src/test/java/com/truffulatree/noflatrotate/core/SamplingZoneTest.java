@@ -0,0 +1,88 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingZoneTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void startsNear() {
+        assertTrue("Nothing known yet should count as near", new SamplingZone(20f, 30f).isNear());
+    }
+
+    @Test
+    public void upright_isFarOnlyAfterDwell() {
+        SamplingZone zone = new SamplingZone(20f, 30f);
+        tilt(zone, 100 * MILLIS, 80, false);
+        assertTrue("Leaving the band should wait for the dwell", zone.isNear());
+        tilt(zone, (100 + SamplingZone.FAR_DWELL_MILLIS) * MILLIS, 80, false);
+        assertFalse("Upright past the dwell should be far", zone.isNear());
+    }
+
+    @Test
+    public void lyingWellFlat_isFar() {
+        SamplingZone zone = new SamplingZone(20f, 30f);
+        tilt(zone, 100 * MILLIS, 2, false);
+        tilt(zone, 2000 * MILLIS, 2, false);
+        assertFalse("Lying well flat should be far", zone.isNear());
+    }
+
+    @Test
+    public void enteringBand_isNearAtOnce() {
+        SamplingZone zone = new SamplingZone(20f, 30f);
+        tilt(zone, 100 * MILLIS, 80, false);
+        tilt(zone, 2000 * MILLIS, 80, false);
+        tilt(zone, 2100 * MILLIS, 38, false);
+        assertTrue("Within the margin of the vertical threshold should be near", zone.isNear());
+    }
+
+    @Test
+    public void bandEdges_includeMargin() {
+        SamplingZone zone = new SamplingZone(20f, 30f);
+        for (int t = 1; t <= 20; t++) {
+            tilt(zone, t * 100 * MILLIS, 12, false);
+        }
+        assertTrue("12° is within the margin of a 20° flat threshold", zone.isNear());
+        for (int t = 21; t <= 40; t++) {
+            tilt(zone, t * 100 * MILLIS, 45, false);
+        }
+        assertFalse("45° is past the margin of a 30° vertical threshold", zone.isNear());
+    }
+
+    @Test
+    public void descending_isNearAnywhere() {
+        SamplingZone zone = new SamplingZone(20f, 30f);
+        tilt(zone, 100 * MILLIS, 80, false);
+        tilt(zone, 2000 * MILLIS, 80, false);
+        tilt(zone, 2100 * MILLIS, 70, true);
+        assertTrue("A put-down starting from upright should be near", zone.isNear());
+    }
+
+    @Test
+    public void lowFlatThreshold_hasNoFarZoneWhenFlat() {
+        SamplingZone zone = new SamplingZone(5f, 30f);
+        tilt(zone, 100 * MILLIS, 0, false);
+        tilt(zone, 2000 * MILLIS, 0, false);
+        assertTrue("A threshold within the margin of flat leaves flat near", zone.isNear());
+    }
+
+    @Test
+    public void reset_goesBackToNear() {
+        SamplingZone zone = new SamplingZone(20f, 30f);
+        tilt(zone, 100 * MILLIS, 80, false);
+        tilt(zone, 2000 * MILLIS, 80, false);
+        zone.reset();
+        assertTrue("Reset should assume near", zone.isNear());
+    }
+
+    private static void tilt(SamplingZone zone, long timestampNanos, float degrees, boolean descending) {
+        double radians = Math.toRadians(degrees);
+        zone.update(timestampNanos, 0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)),
+                descending);
+    }
+}
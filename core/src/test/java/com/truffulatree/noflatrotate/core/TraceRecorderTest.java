@@ -0,0 +1,93 @@
+package com.truffulatree.noflatrotate.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class TraceRecorderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void dump_writesHeaderAndRecords() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(4);
+        recorder.record(100L, 1f, 2f, 9.5f, 0.75f, TraceRecorder.FLAG_DETECTOR_FLAT, 1);
+        recorder.setLastDecision(LockStateMachine.ACTION_LOCK);
+
+        ByteBuffer buffer = dump(recorder);
+        assertEquals("Magic should come first", TraceRecorder.MAGIC, buffer.getInt());
+        assertEquals("Version should follow", TraceRecorder.VERSION, buffer.getInt());
+        assertEquals("Record count should follow", 1, buffer.getInt());
+        assertEquals("Timestamp should be written", 100L, buffer.getLong());
+        assertEquals("x should be written", 1f, buffer.getFloat(), 0f);
+        assertEquals("y should be written", 2f, buffer.getFloat(), 0f);
+        assertEquals("z should be written", 9.5f, buffer.getFloat(), 0f);
+        assertEquals("Flatness should be written", 0.75f, buffer.getFloat(), 0f);
+        assertEquals("Flags should be written", TraceRecorder.FLAG_DETECTOR_FLAT, buffer.get());
+        assertEquals("Decision should be attached to the sample", LockStateMachine.ACTION_LOCK, buffer.get());
+        assertEquals("Stable rotation should be written", 1, buffer.get());
+        assertEquals("Nothing should follow the last record", 0, buffer.remaining());
+    }
+
+    @Test
+    public void fullBuffer_keepsNewestRecordsOldestFirst() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(3);
+        for (int i = 1; i <= 5; i++) {
+            recorder.record(i, 0f, 0f, 9.81f, 0f, 0, 0);
+        }
+        assertEquals("Size should be capped at capacity", 3, recorder.size());
+
+        ByteBuffer buffer = dump(recorder);
+        buffer.position(TraceRecorder.HEADER_BYTES);
+        for (long expected = 3; expected <= 5; expected++) {
+            assertEquals("Records should run oldest to newest", expected, buffer.getLong());
+            buffer.position(buffer.position() + TraceRecorder.RECORD_BYTES - Long.BYTES);
+        }
+    }
+
+    @Test
+    public void setLastDecision_afterWrapTargetsNewestRecord() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(2);
+        recorder.record(1L, 0f, 0f, 9.81f, 0f, 0, 0);
+        recorder.record(2L, 0f, 0f, 9.81f, 0f, 0, 0);
+        recorder.setLastDecision(LockStateMachine.ACTION_UNLOCK);
+
+        ByteBuffer buffer = dump(recorder);
+        int decisionOffset = Long.BYTES + 4 * Float.BYTES + 1;
+        assertEquals("First record should have no decision", LockStateMachine.ACTION_NONE,
+                buffer.get(TraceRecorder.HEADER_BYTES + decisionOffset));
+        assertEquals("Newest record should carry the decision", LockStateMachine.ACTION_UNLOCK,
+                buffer.get(TraceRecorder.HEADER_BYTES + TraceRecorder.RECORD_BYTES + decisionOffset));
+    }
+
+    @Test
+    public void clear_dumpsEmptyTrace() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(2);
+        recorder.record(1L, 0f, 0f, 9.81f, 0f, 0, 0);
+        recorder.clear();
+
+        ByteBuffer buffer = dump(recorder);
+        assertEquals("Empty trace should be just the header", TraceRecorder.HEADER_BYTES, buffer.remaining());
+        assertEquals("Record count should be zero", 0, buffer.getInt(2 * Integer.BYTES));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCapacity_isRejected() {
+        new TraceRecorder(0);
+    }
+
+    private ByteBuffer dump(TraceRecorder recorder) throws IOException {
+        File file = temporaryFolder.newFile("trace.bin");
+        recorder.dump(file);
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,165 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.DetectionConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command-line entry point: replays one or more traces under every combination of the given
+ * settings and prints a tab-separated summary line per trace and combination.
+ */
+public final class ReplayMain {
+
+    // Matching MainActivity's defaults, which this tool can't see from the app module
+    private static final String DEFAULT_FLAT = "20";
+    private static final String DEFAULT_VERTICAL = "30";
+    private static final String DEFAULT_DWELL_MS = "0";
+    private static final String DEFAULT_FILTER_MS = "200";
+    private static final String DEFAULT_PREDICT_MS = "0";
+
+    private static final String USAGE = "usage: replay [options] trace...\n"
+            + "  --flat DEG[,DEG...]      flat threshold in degrees (default " + DEFAULT_FLAT + ")\n"
+            + "  --vertical DEG[,DEG...]  unlock threshold in degrees (default " + DEFAULT_VERTICAL + ")\n"
+            + "  --dwell MS[,MS...]       dwell time in milliseconds (default " + DEFAULT_DWELL_MS + ")\n"
+            + "  --filter MS[,MS...]      motion smoothing time constant in milliseconds (default "
+            + DEFAULT_FILTER_MS + ")\n"
+            + "  --predict MS[,MS...]     lock this far ahead of a predicted put-down, 0 for off (default "
+            + DEFAULT_PREDICT_MS + ")\n"
+            + "  --events                 print every lock and unlock as it happens\n"
+            + "Traces are binary files saved by the app or CSV lines of timestamp_ns,x,y,z[,rotation].\n"
+            + "A comma-separated list sweeps that setting; every combination is replayed.";
+
+    private ReplayMain() {}
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args, System.out, System.err));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+    }
+
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        String flat = DEFAULT_FLAT;
+        String vertical = DEFAULT_VERTICAL;
+        String dwell = DEFAULT_DWELL_MS;
+        String filter = DEFAULT_FILTER_MS;
+        String predict = DEFAULT_PREDICT_MS;
+        boolean printEvents = false;
+        List<File> traces = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--flat":
+                    flat = value(args, ++i);
+                    break;
+                case "--vertical":
+                    vertical = value(args, ++i);
+                    break;
+                case "--dwell":
+                    dwell = value(args, ++i);
+                    break;
+                case "--filter":
+                    filter = value(args, ++i);
+                    break;
+                case "--predict":
+                    predict = value(args, ++i);
+                    break;
+                case "--events":
+                    printEvents = true;
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                    }
+                    traces.add(new File(args[i]));
+                    break;
+            }
+        }
+        if (traces.isEmpty()) {
+            throw new IllegalArgumentException("No traces given");
+        }
+
+        int failures = 0;
+        out.println(TraceReplay.summaryHeader());
+        for (float flatDegrees : floats(flat)) {
+            for (float verticalDegrees : floats(vertical)) {
+                for (int dwellMillis : ints(dwell)) {
+                    for (int filterMillis : ints(filter)) {
+                        for (int predictMillis : ints(predict)) {
+                            DetectionConfig config = new DetectionConfig.Builder()
+                                    .thresholds(flatDegrees, verticalDegrees)
+                                    .dwellMillis(dwellMillis)
+                                    .filterTimeConstantMillis(filterMillis)
+                                    .predictionMillis(predictMillis)
+                                    .build();
+                            for (File trace : traces) {
+                                if (!replay(trace, config, printEvents, out, err)) {
+                                    failures++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return failures == 0 ? 0 : 1;
+    }
+
+    private static boolean replay(File trace, DetectionConfig config, boolean printEvents, PrintStream out,
+                                  PrintStream err) {
+        TraceReplay replay = new TraceReplay(config, printEvents ? out : null);
+        long start = System.nanoTime();
+        long read;
+        try {
+            read = TraceReader.read(trace, replay);
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return false;
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        out.println(replay.summary(trace.getName()));
+        err.println(String.format(Locale.ROOT, "%s: %d samples in %.1f ms (%.1f M samples/s)",
+                trace.getName(), read, elapsed / 1e6, read * 1e3 / elapsed));
+        return true;
+    }
+
+    private static String value(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static float[] floats(String list) {
+        String[] parts = list.split(",");
+        float[] values = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                values[i] = Float.parseFloat(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + parts[i]);
+            }
+        }
+        return values;
+    }
+
+    private static int[] ints(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                values[i] = Integer.parseInt(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a whole number: " + parts[i]);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,287 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.TraceRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams accelerometer samples out of a trace file, either the binary format written by
+ * {@link TraceRecorder} or CSV with one {@code timestamp_ns,x,y,z[,rotation]} sample per line.
+ *
+ * The file is memory-mapped and parsed in place, with no allocation per sample, so reading
+ * keeps up with the replay. Blank lines, lines starting with '#' and a header line starting
+ * with a letter are skipped in CSV. Files are limited to 2 GB each.
+ */
+final class TraceReader {
+
+    /**
+     * Receives each sample in file order. {@code stableRotation} is the Surface rotation the
+     * service would have locked to; CSV lines without a rotation column report 0.
+     */
+    interface SampleSink {
+        void accept(long timestampNanos, float x, float y, float z, int stableRotation);
+    }
+
+    private static final int RECORD_ROTATION_OFFSET = TraceRecorder.RECORD_BYTES - 1;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private TraceReader() {}
+
+    /**
+     * @return the number of samples passed to {@code sink}
+     */
+    static long read(File file, SampleSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + ": traces over 2 GB are not supported");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (size >= Integer.BYTES && buffer.getInt(0) == TraceRecorder.MAGIC) {
+                return readBinary(file, buffer, sink);
+            }
+            return readCsv(file, buffer, sink);
+        }
+    }
+
+    private static long readBinary(File file, MappedByteBuffer buffer, SampleSink sink) throws IOException {
+        if (buffer.limit() < TraceRecorder.HEADER_BYTES) {
+            throw new IOException(file + ": truncated header");
+        }
+        int version = buffer.getInt(Integer.BYTES);
+        // Versions differ only in the flatness field, which replay recomputes
+        if (version < 1 || version > TraceRecorder.VERSION) {
+            throw new IOException(file + ": unsupported trace version " + version);
+        }
+        int count = buffer.getInt(2 * Integer.BYTES);
+        if (count < 0 || TraceRecorder.HEADER_BYTES + (long) count * TraceRecorder.RECORD_BYTES > buffer.limit()) {
+            throw new IOException(file + ": header promises " + count + " records but the file is too short");
+        }
+        int offset = TraceRecorder.HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            sink.accept(buffer.getLong(offset),
+                    buffer.getFloat(offset + Long.BYTES),
+                    buffer.getFloat(offset + Long.BYTES + Float.BYTES),
+                    buffer.getFloat(offset + Long.BYTES + 2 * Float.BYTES),
+                    buffer.get(offset + RECORD_ROTATION_OFFSET));
+            offset += TraceRecorder.RECORD_BYTES;
+        }
+        return count;
+    }
+
+    private static long readCsv(File file, MappedByteBuffer buffer, SampleSink sink) throws IOException {
+        CsvCursor cursor = new CsvCursor(file, buffer);
+        long count = 0;
+        while (cursor.nextLine()) {
+            long timestampNanos = cursor.longField();
+            float x = (float) cursor.decimalField();
+            float y = (float) cursor.decimalField();
+            float z = (float) cursor.decimalField();
+            int rotation = cursor.hasField() ? (int) cursor.longField() : 0;
+            cursor.endLine();
+            sink.accept(timestampNanos, x, y, z, rotation);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Position within a mapped CSV file. Fields are parsed straight from the bytes, without
+     * building Strings.
+     */
+    private static final class CsvCursor {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private final int limit;
+        private int position = 0;
+        private int lineNumber = 0;
+        // Whether the field about to be parsed is the first on its line
+        private boolean firstField;
+
+        CsvCursor(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+        }
+
+        /**
+         * Advances to the start of the next line holding a sample.
+         *
+         * @return false at the end of the file
+         */
+        boolean nextLine() {
+            while (position < limit) {
+                lineNumber++;
+                byte b = buffer.get(position);
+                if (b == '\n' || b == '\r') {
+                    skipLineEnd();
+                } else if (b == '#' || (b | 0x20) >= 'a' && (b | 0x20) <= 'z') {
+                    skipToLineEnd();
+                    skipLineEnd();
+                } else {
+                    firstField = true;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean hasField() {
+            skipSpaces();
+            return position < limit && buffer.get(position) == ',';
+        }
+
+        long longField() throws IOException {
+            startField();
+            boolean negative = consume('-');
+            int start = position;
+            long value = 0;
+            while (position < limit && isDigit(buffer.get(position))) {
+                value = value * 10 + (buffer.get(position++) - '0');
+            }
+            if (position == start) {
+                throw error("expected an integer");
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * Parses a decimal such as {@code -9.80665} or {@code 1.5e-3}. Digits past the 18th
+         * significant one only scale the result, which is far below float precision.
+         */
+        double decimalField() throws IOException {
+            startField();
+            boolean negative = consume('-');
+            if (!negative) {
+                consume('+');
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean seenDigit = false;
+            boolean seenPoint = false;
+            while (position < limit) {
+                byte b = buffer.get(position);
+                if (isDigit(b)) {
+                    seenDigit = true;
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (mantissa != 0) {
+                            digits++;
+                        }
+                        if (seenPoint) {
+                            exponent--;
+                        }
+                    } else if (!seenPoint) {
+                        exponent++;
+                    }
+                } else if (b == '.' && !seenPoint) {
+                    seenPoint = true;
+                } else {
+                    break;
+                }
+                position++;
+            }
+            if (!seenDigit) {
+                throw error("expected a number");
+            }
+            if (position < limit && (buffer.get(position) | 0x20) == 'e') {
+                position++;
+                boolean negativeExponent = consume('-');
+                if (!negativeExponent) {
+                    consume('+');
+                }
+                int start = position;
+                int value = 0;
+                while (position < limit && isDigit(buffer.get(position)) && value < 1000) {
+                    value = value * 10 + (buffer.get(position++) - '0');
+                }
+                if (position == start) {
+                    throw error("expected an exponent");
+                }
+                exponent += negativeExponent ? -value : value;
+            }
+            double result = scale(mantissa, exponent);
+            return negative ? -result : result;
+        }
+
+        void endLine() throws IOException {
+            skipSpaces();
+            if (position < limit && buffer.get(position) != '\n' && buffer.get(position) != '\r') {
+                throw error("unexpected text after the last field");
+            }
+            skipLineEnd();
+        }
+
+        private void startField() throws IOException {
+            skipSpaces();
+            if (!firstField) {
+                if (!consume(',')) {
+                    throw error("expected ','");
+                }
+                skipSpaces();
+            }
+            firstField = false;
+        }
+
+        private boolean consume(char c) {
+            if (position < limit && buffer.get(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (position < limit && (buffer.get(position) == ' ' || buffer.get(position) == '\t')) {
+                position++;
+            }
+        }
+
+        private void skipToLineEnd() {
+            while (position < limit && buffer.get(position) != '\n' && buffer.get(position) != '\r') {
+                position++;
+            }
+        }
+
+        private void skipLineEnd() {
+            if (position < limit && buffer.get(position) == '\r') {
+                position++;
+            }
+            if (position < limit && buffer.get(position) == '\n') {
+                position++;
+            }
+        }
+
+        private IOException error(String message) {
+            return new IOException(file + ":" + lineNumber + ": " + message);
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static double scale(long mantissa, int exponent) {
+        if (exponent == 0 || mantissa == 0) {
+            return mantissa;
+        }
+        if (exponent > 0) {
+            return exponent < POWERS_OF_TEN.length ? mantissa * POWERS_OF_TEN[exponent] : mantissa * Math.pow(10, exponent);
+        }
+        return -exponent < POWERS_OF_TEN.length ? mantissa / POWERS_OF_TEN[-exponent] : mantissa / Math.pow(10, -exponent);
+    }
+}
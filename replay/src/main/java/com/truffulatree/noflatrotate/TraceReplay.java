@@ -0,0 +1,254 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.DetectionConfig;
+import com.truffulatree.noflatrotate.core.DetectionPipeline;
+import com.truffulatree.noflatrotate.core.LockStateMachine;
+import com.truffulatree.noflatrotate.core.Metrics;
+import com.truffulatree.noflatrotate.core.RotationController;
+import com.truffulatree.noflatrotate.core.RotationSettings;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Runs recorded samples through the service's detection and lock logic and tallies what
+ * happened: lock/unlock events, transitions, decision latency, how far ahead predicted locks
+ * fired and the settings writes the service would have issued.
+ *
+ * {@link RotationController} is the service's own controller. The system settings are
+ * simulated the way RotationSettingsWriter tracks them, including skipping writes that
+ * wouldn't change anything, and each sample's recorded rotation stands in for the display
+ * rotation. The one difference from the device is that every sample is acted on, as the
+ * service does with batching off.
+ */
+final class TraceReplay implements TraceReader.SampleSink {
+
+    private final DetectionConfig config;
+    private final SimulatedSettings settings = new SimulatedSettings();
+    private final Metrics metrics = new Metrics();
+    private final RotationController controller;
+    // Prints each lock/unlock as it happens, or null
+    private final PrintStream events;
+
+    // The rotation recorded with the sample being replayed
+    private int sampleRotation = 0;
+
+    private long staleSamples = 0;
+    private long rejectedSamples = 0;
+    private long locks = 0;
+    private long unlocks = 0;
+    private long resets = 0;
+
+    // Decision latency: from the sample where the raw, unfiltered verdict last changed to
+    // the sample where the lock or unlock that follows it is issued
+    private long rawChangedAtNanos = -1;
+    private long latencyCount = 0;
+    private long latencyTotalNanos = 0;
+    private long latencyMaxNanos = 0;
+
+    // Lead of a predicted lock: from the sample where the lock is issued while the raw verdict
+    // is still not flat to the sample where the raw verdict turns flat. A predicted lock undone
+    // before that was a false prediction.
+    private long earlyLockAtNanos = -1;
+    private long earlyLocks = 0;
+    private long falsePredictions = 0;
+    private long leadCount = 0;
+    private long leadTotalNanos = 0;
+    private long leadMaxNanos = 0;
+
+    TraceReplay(DetectionConfig config, PrintStream events) {
+        this.config = config;
+        this.controller = new RotationController(config, settings, () -> sampleRotation, metrics, null);
+        this.events = events;
+    }
+
+    @Override
+    public void accept(long timestampNanos, float x, float y, float z, int stableRotation) {
+        sampleRotation = stableRotation;
+        boolean wasRawFlat = controller.isRawFlat();
+        int result = controller.onAccelerometerSample(timestampNanos, x, y, z);
+        if (result == DetectionPipeline.SAMPLE_STALE) {
+            staleSamples++;
+            return;
+        }
+        if (controller.isRawFlat() != wasRawFlat || rawChangedAtNanos < 0) {
+            rawChangedAtNanos = timestampNanos;
+        }
+        if (earlyLockAtNanos >= 0 && controller.isRawFlat()) {
+            long lead = timestampNanos - earlyLockAtNanos;
+            leadCount++;
+            leadTotalNanos += lead;
+            leadMaxNanos = Math.max(leadMaxNanos, lead);
+            earlyLockAtNanos = -1;
+        }
+        if (result == DetectionPipeline.SAMPLE_REJECTED) {
+            rejectedSamples++;
+            return;
+        }
+
+        switch (controller.act()) {
+            case LockStateMachine.ACTION_LOCK:
+                locks++;
+                if (!controller.isRawFlat()) {
+                    earlyLocks++;
+                    earlyLockAtNanos = timestampNanos;
+                }
+                decided(timestampNanos, true, "lock rotation " + controller.lastStableRotation());
+                break;
+            case LockStateMachine.ACTION_UNLOCK:
+                unlocks++;
+                if (earlyLockAtNanos >= 0) {
+                    falsePredictions++;
+                    earlyLockAtNanos = -1;
+                }
+                decided(timestampNanos, false, "unlock");
+                break;
+            case LockStateMachine.ACTION_RESET:
+                resets++;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void decided(long timestampNanos, boolean locked, String what) {
+        // Only meaningful if the raw signal still agrees with the decision
+        if (controller.isRawFlat() == locked) {
+            long latency = timestampNanos - rawChangedAtNanos;
+            latencyCount++;
+            latencyTotalNanos += latency;
+            latencyMaxNanos = Math.max(latencyMaxNanos, latency);
+        }
+        if (events != null) {
+            events.println(String.format(Locale.ROOT, "%d\t%s\tangle=%.1f", timestampNanos, what,
+                    controller.lastAngleFromVertical()));
+        }
+    }
+
+    long samples() {
+        return metrics.get(Metrics.SAMPLES_PROCESSED);
+    }
+
+    long staleSamples() {
+        return staleSamples;
+    }
+
+    long rejectedSamples() {
+        return rejectedSamples;
+    }
+
+    long flatEntries() {
+        return metrics.get(Metrics.FLAT_ENTRIES);
+    }
+
+    long flatExits() {
+        return metrics.get(Metrics.FLAT_EXITS);
+    }
+
+    long locks() {
+        return locks;
+    }
+
+    long unlocks() {
+        return unlocks;
+    }
+
+    long resets() {
+        return resets;
+    }
+
+    long writesIssued() {
+        return settings.writesIssued;
+    }
+
+    long writesSkipped() {
+        return settings.writesSkipped;
+    }
+
+    long suppressedTransitions() {
+        return controller.suppressedTransitionCount();
+    }
+
+    /** Mean decision latency in nanoseconds, or 0 if nothing was decided. */
+    long meanLatencyNanos() {
+        return latencyCount == 0 ? 0 : latencyTotalNanos / latencyCount;
+    }
+
+    long maxLatencyNanos() {
+        return latencyMaxNanos;
+    }
+
+    /** Locks issued before the raw verdict was flat, i.e. on a prediction. */
+    long earlyLocks() {
+        return earlyLocks;
+    }
+
+    /** Early locks undone before the raw verdict ever turned flat. */
+    long falsePredictions() {
+        return falsePredictions;
+    }
+
+    /** Mean time by which predicted locks beat the raw verdict, or 0 if there were none. */
+    long meanLeadNanos() {
+        return leadCount == 0 ? 0 : leadTotalNanos / leadCount;
+    }
+
+    long maxLeadNanos() {
+        return leadMaxNanos;
+    }
+
+    static String summaryHeader() {
+        return "trace\tflat\tvertical\tdwell_ms\tfilter_ms\tpredict_ms\tsamples\tstale\trejected\tflat_entries"
+                + "\tflat_exits\tlocks\tunlocks\tresets\twrites\twrites_skipped\tsuppressed\tmean_latency_ms"
+                + "\tmax_latency_ms\tearly_locks\tfalse_predictions\tmean_lead_ms\tmax_lead_ms";
+    }
+
+    String summary(String traceName) {
+        return String.format(Locale.ROOT,
+                "%s\t%.1f\t%.1f\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%.1f\t%.1f\t%d\t%d\t%.1f\t%.1f",
+                traceName, config.flatThresholdDegrees(), config.verticalThresholdDegrees(), config.dwellMillis(),
+                config.filterTimeConstantMillis(), config.predictionMillis(), samples(), staleSamples, rejectedSamples,
+                flatEntries(), flatExits(), locks, unlocks, resets, writesIssued(), writesSkipped(),
+                suppressedTransitions(), meanLatencyNanos() / 1e6, maxLatencyNanos() / 1e6, earlyLocks,
+                falsePredictions, meanLeadNanos() / 1e6, maxLeadNanos() / 1e6);
+    }
+
+    /**
+     * Settings.System as RotationSettingsWriter sees it, starting with auto-rotate on in
+     * portrait.
+     */
+    private static final class SimulatedSettings implements RotationSettings {
+        private int accelerometerRotation = 1;
+        private int userRotation = 0;
+        private long writesIssued = 0;
+        private long writesSkipped = 0;
+
+        @Override
+        public boolean isAutoRotateEnabled() {
+            return accelerometerRotation == 1;
+        }
+
+        @Override
+        public boolean lockRotation(int rotation) {
+            // Same order as RotationSettingsWriter.lockRotation
+            userRotation = put(userRotation, rotation);
+            accelerometerRotation = put(accelerometerRotation, 0);
+            return true;
+        }
+
+        @Override
+        public boolean setAutoRotateEnabled(boolean enabled) {
+            accelerometerRotation = put(accelerometerRotation, enabled ? 1 : 0);
+            return true;
+        }
+
+        private int put(int current, int value) {
+            if (current == value) {
+                writesSkipped++;
+            } else {
+                writesIssued++;
+            }
+            return value;
+        }
+    }
+}
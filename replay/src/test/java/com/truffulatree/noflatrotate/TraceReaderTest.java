@@ -0,0 +1,111 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.TraceRecorder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TraceReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    // ==================== CSV Tests ====================
+
+    @Test
+    public void csv_parsesSamplesAndSkipsHeaderAndComments() throws IOException {
+        File file = csv("timestamp_ns,x,y,z\n"
+                + "# comment\n"
+                + "\n"
+                + "100,0.5,-1.25,9.80665\r\n"
+                + "200, 1e-3 ,+2.5E1,-0.0,1\n");
+        List<float[]> samples = read(file);
+
+        assertEquals("Two samples should be read", 2, samples.size());
+        assertSample("First sample", samples.get(0), 100, 0.5f, -1.25f, 9.80665f, 0);
+        assertSample("Second sample", samples.get(1), 200, 0.001f, 25f, -0f, 1);
+    }
+
+    @Test
+    public void csv_lastLineWithoutNewline_isRead() throws IOException {
+        assertEquals("Final line should be read", 1, read(csv("1,0,0,9.81")).size());
+    }
+
+    @Test
+    public void csv_manySignificantDigits_stayAccurate() throws IOException {
+        List<float[]> samples = read(csv("1,0.123456789012345678901,12345678901234567890.5,0.000000000000000000000000123\n"));
+        assertSample("Long decimals", samples.get(0), 1, 0.12345679f, 1.2345679e19f, 1.23e-25f, 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void csv_missingField_isAnError() throws IOException {
+        read(csv("1,0,9.81\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void csv_trailingGarbage_isAnError() throws IOException {
+        read(csv("1,0,0,9.81x\n"));
+    }
+
+    // ==================== Binary Tests ====================
+
+    @Test
+    public void binary_readsRecorderOutput() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(8);
+        recorder.record(10L, 1f, 2f, 3f, 45f, 0, 3);
+        recorder.record(20L, -1f, -2f, -3f, 45f, 0, 1);
+        File file = temporaryFolder.newFile("trace.bin");
+        recorder.dump(file);
+
+        List<float[]> samples = read(file);
+        assertEquals("Both records should be read", 2, samples.size());
+        assertSample("First record", samples.get(0), 10, 1f, 2f, 3f, 3);
+        assertSample("Second record", samples.get(1), 20, -1f, -2f, -3f, 1);
+    }
+
+    @Test(expected = IOException.class)
+    public void binary_truncatedFile_isAnError() throws IOException {
+        TraceRecorder recorder = new TraceRecorder(8);
+        recorder.record(10L, 1f, 2f, 3f, 45f, 0, 0);
+        File file = temporaryFolder.newFile("trace.bin");
+        recorder.dump(file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), java.util.Arrays.copyOf(bytes, bytes.length - 1));
+
+        read(file);
+    }
+
+    // ==================== Helper Methods ====================
+
+    private File csv(String content) throws IOException {
+        File file = temporaryFolder.newFile("trace.csv");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static List<float[]> read(File file) throws IOException {
+        List<float[]> samples = new ArrayList<>();
+        TraceReader.read(file, (timestampNanos, x, y, z, stableRotation) ->
+                samples.add(new float[] {timestampNanos, x, y, z, stableRotation}));
+        return samples;
+    }
+
+    private static void assertSample(String what, float[] sample, long timestampNanos, float x, float y, float z,
+                                     int rotation) {
+        assertEquals(what + " timestamp", timestampNanos, (long) sample[0]);
+        assertEquals(what + " x", x, sample[1], Math.ulp(x));
+        assertEquals(what + " y", y, sample[2], Math.ulp(y));
+        assertEquals(what + " z", z, sample[3], Math.ulp(z));
+        assertEquals(what + " rotation", rotation, (int) sample[4]);
+    }
+}
@@ -0,0 +1,127 @@
+package com.truffulatree.noflatrotate;
+
+import com.truffulatree.noflatrotate.core.DetectionConfig;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TraceReplayTest {
+
+    private static final float GRAVITY = 9.81f;
+    private static final long SAMPLE_NANOS = 100_000_000L;
+
+    @Test
+    public void putDownAndPickUp_locksOnceAndUnlocksOnce() {
+        TraceReplay replay = new TraceReplay(config(0, 0), null);
+        long t = feed(replay, 0L, 10, 0f, GRAVITY, 0f, 1);
+        t = feed(replay, t, 10, 0f, 0f, GRAVITY, 1);
+        feed(replay, t, 10, 0f, GRAVITY, 0f, 1);
+
+        assertEquals("Device should lock once", 1, replay.locks());
+        assertEquals("Device should unlock once", 1, replay.unlocks());
+        assertEquals("Lock writes rotation and auto-rotate, unlock writes auto-rotate", 3, replay.writesIssued());
+        assertEquals("Unfiltered and undebounced, the decision should be immediate", 0, replay.maxLatencyNanos());
+    }
+
+    @Test
+    public void lockToPortrait_skipsRedundantRotationWrite() {
+        TraceReplay replay = new TraceReplay(config(0, 0), null);
+        feed(replay, 0L, 5, 0f, 0f, GRAVITY, 0);
+
+        assertEquals("Only auto-rotate should be written", 1, replay.writesIssued());
+        assertEquals("Rotation already portrait should be skipped", 1, replay.writesSkipped());
+    }
+
+    @Test
+    public void dwellTime_showsUpAsDecisionLatency() {
+        TraceReplay replay = new TraceReplay(config(500, 0), null);
+        feed(replay, 0L, 10, 0f, 0f, GRAVITY, 0);
+
+        assertEquals("Lock should come after the dwell time", 1, replay.locks());
+        assertEquals("Latency should equal the dwell time", 500_000_000L, replay.maxLatencyNanos());
+    }
+
+    @Test
+    public void staleAndTinySamples_areCountedButIgnored() {
+        TraceReplay replay = new TraceReplay(config(0, 0), null);
+        replay.accept(200L, 0f, 0f, GRAVITY, 0);
+        replay.accept(100L, 0f, 0f, GRAVITY, 0);
+        replay.accept(300L, 0f, 0f, 0f, 0);
+
+        assertEquals("One sample should be judged", 1, replay.samples());
+        assertEquals("Out-of-order sample should be stale", 1, replay.staleSamples());
+        assertEquals("Zero vector should be rejected", 1, replay.rejectedSamples());
+    }
+
+    @Test
+    public void prediction_locksAheadOfRawVerdict() {
+        TraceReplay replay = new TraceReplay(predictiveConfig(200), null);
+        layDown(replay);
+
+        assertEquals("Device should lock once", 1, replay.locks());
+        assertEquals("The lock should come before the device is flat", 1, replay.earlyLocks());
+        assertEquals("Locked at 32°, flat at 14°: three samples early", 300_000_000L, replay.maxLeadNanos());
+        assertEquals("The prediction came true", 0, replay.falsePredictions());
+    }
+
+    @Test
+    public void noPrediction_locksOnRawVerdict() {
+        TraceReplay replay = new TraceReplay(predictiveConfig(0), null);
+        layDown(replay);
+
+        assertEquals("Device should lock once", 1, replay.locks());
+        assertEquals("Nothing should lock early", 0, replay.earlyLocks());
+        assertEquals("No lead without prediction", 0, replay.meanLeadNanos());
+    }
+
+    @Test
+    public void prediction_stoppingShortCountsAsFalse() {
+        TraceReplay replay = new TraceReplay(predictiveConfig(200), null);
+        tilt(replay, 0L, 1, 70, 62, 54, 46, 38, 32, 26, 26, 26);
+
+        assertEquals("Stopping short should undo the early lock", 1, replay.unlocks());
+        assertEquals("The prediction should be counted as false", 1, replay.falsePredictions());
+    }
+
+    private static DetectionConfig predictiveConfig(int predictionMillis) {
+        return new DetectionConfig.Builder().predictionMillis(predictionMillis).build();
+    }
+
+    /**
+     * Lays the device down from upright at 60°/s and leaves it flat.
+     */
+    private static void layDown(TraceReplay replay) {
+        tilt(replay, 0L, 1, 90, 90, 80, 74, 68, 62, 56, 50, 44, 38, 32, 26, 20, 14, 8, 2, 0, 0);
+    }
+
+    /**
+     * Feeds one sample per angle from flat at 10Hz after {@code startNanos}, top edge up.
+     */
+    private static void tilt(TraceReplay replay, long startNanos, int rotation, float... degrees) {
+        long t = startNanos;
+        for (float angle : degrees) {
+            t += SAMPLE_NANOS;
+            double radians = Math.toRadians(angle);
+            replay.accept(t, 0f, (float) (GRAVITY * Math.sin(radians)), (float) (GRAVITY * Math.cos(radians)), rotation);
+        }
+    }
+
+    private static DetectionConfig config(int dwellMillis, int filterMillis) {
+        return new DetectionConfig.Builder().dwellMillis(dwellMillis).filterTimeConstantMillis(filterMillis).build();
+    }
+
+    /**
+     * Feeds {@code count} identical samples at 10Hz after {@code startNanos}.
+     *
+     * @return the last timestamp used
+     */
+    private static long feed(TraceReplay replay, long startNanos, int count, float x, float y, float z, int rotation) {
+        long t = startNanos;
+        for (int i = 0; i < count; i++) {
+            t += SAMPLE_NANOS;
+            replay.accept(t, x, y, z, rotation);
+        }
+        return t;
+    }
+}